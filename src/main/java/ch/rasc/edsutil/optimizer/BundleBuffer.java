@@ -0,0 +1,107 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.util.Arrays;
+
+/**
+ * Growable byte sink for assembling a bundle. Appended text is encoded to UTF-8
+ * directly into the buffer and passed to the hasher as it is written, so the
+ * bundle is neither copied into an intermediate string nor read a second time for
+ * the hash.
+ */
+final class BundleBuffer {
+
+	private final BundleHash.Hasher hasher;
+
+	private byte[] buf;
+
+	private int count;
+
+	BundleBuffer(int initialCapacity, BundleHash.Hasher hasher) {
+		this.buf = new byte[Math.max(initialCapacity, 16)];
+		this.hasher = hasher;
+	}
+
+	void append(CharSequence text) {
+		int start = this.count;
+		int length = text.length();
+		ensureCapacity(this.count + length);
+
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c < 0x80 && this.count < this.buf.length) {
+				this.buf[this.count++] = (byte) c;
+				continue;
+			}
+
+			ensureCapacity(this.count + 4 + length - i);
+			if (c < 0x80) {
+				this.buf[this.count++] = (byte) c;
+			}
+			else if (c < 0x800) {
+				this.buf[this.count++] = (byte) (0xc0 | c >> 6);
+				this.buf[this.count++] = (byte) (0x80 | c & 0x3f);
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(text.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, text.charAt(++i));
+				this.buf[this.count++] = (byte) (0xf0 | cp >> 18);
+				this.buf[this.count++] = (byte) (0x80 | cp >> 12 & 0x3f);
+				this.buf[this.count++] = (byte) (0x80 | cp >> 6 & 0x3f);
+				this.buf[this.count++] = (byte) (0x80 | cp & 0x3f);
+			}
+			else if (Character.isSurrogate(c)) {
+				// unpaired surrogate, replaced like String.getBytes does
+				this.buf[this.count++] = '?';
+			}
+			else {
+				this.buf[this.count++] = (byte) (0xe0 | c >> 12);
+				this.buf[this.count++] = (byte) (0x80 | c >> 6 & 0x3f);
+				this.buf[this.count++] = (byte) (0x80 | c & 0x3f);
+			}
+		}
+
+		this.hasher.update(this.buf, start, this.count - start);
+	}
+
+	int size() {
+		return this.count;
+	}
+
+	String hash() {
+		return this.hasher.hash();
+	}
+
+	/**
+	 * Returns the content. The internal array is returned without a copy when the
+	 * initial capacity was exact.
+	 */
+	byte[] toByteArray() {
+		if (this.count == this.buf.length) {
+			return this.buf;
+		}
+		return Arrays.copyOf(this.buf, this.count);
+	}
+
+	private void ensureCapacity(int minCapacity) {
+		if (minCapacity > this.buf.length) {
+			this.buf = Arrays.copyOf(this.buf,
+					Math.max(minCapacity, this.buf.length + (this.buf.length >> 1)));
+		}
+	}
+
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Bytes of one variant of a bundle that a {@link ResourceServlet} serves. Either a
+ * heap array, a direct buffer or a memory-mapped file.
+ */
+public final class BundleContent {
+
+	private static final int COPY_CHUNK_SIZE = 16 * 1024;
+
+	private final byte[] array;
+
+	private final ByteBuffer buffer;
+
+	private final Path file;
+
+	private BundleContent(byte[] array, ByteBuffer buffer, Path file) {
+		this.array = array;
+		this.buffer = buffer;
+		this.file = file;
+	}
+
+	public static BundleContent heap(byte[] data) {
+		return new BundleContent(data, null, null);
+	}
+
+	/**
+	 * Copies the data into a direct buffer outside of the Java heap.
+	 */
+	public static BundleContent direct(byte[] data) {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+		buffer.put(data);
+		buffer.flip();
+		return new BundleContent(null, buffer.asReadOnlyBuffer(), null);
+	}
+
+	/**
+	 * Maps the file into memory. The file must not be changed while it is served.
+	 */
+	public static BundleContent mapped(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+			return new BundleContent(null, buffer, file);
+		}
+	}
+
+	public int length() {
+		return this.array != null ? this.array.length : this.buffer.capacity();
+	}
+
+	/**
+	 * Returns the mapped file, null for content that is not backed by a file.
+	 */
+	public Path getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Returns a new read-only view of the whole content, null for heap content.
+	 */
+	ByteBuffer getBuffer() {
+		return this.buffer != null ? this.buffer.asReadOnlyBuffer() : null;
+	}
+
+	/**
+	 * Writes a range of the content. Content outside of the heap is copied through
+	 * the chunk array, a new one is allocated when it is null.
+	 */
+	void write(OutputStream out, int offset, int length, byte[] chunk)
+			throws IOException {
+		if (this.array != null) {
+			out.write(this.array, offset, length);
+			return;
+		}
+
+		if (chunk == null) {
+			chunk = new byte[Math.min(length, COPY_CHUNK_SIZE)];
+		}
+		ByteBuffer view = this.buffer.duplicate();
+		view.position(offset);
+		int remaining = length;
+		while (remaining > 0) {
+			int len = Math.min(chunk.length, remaining);
+			view.get(chunk, 0, len);
+			out.write(chunk, 0, len);
+			remaining -= len;
+		}
+	}
+
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+/**
+ * Hash function for the bundle file names and ETags. The content is fed
+ * incrementally while the bundle is assembled.
+ */
+public interface BundleHash {
+
+	/**
+	 * MD5, the default. Produces the same names as earlier versions.
+	 */
+	BundleHash MD5 = () -> new BundleHashers.MessageDigestHasher("MD5");
+
+	BundleHash SHA_256 = () -> new BundleHashers.MessageDigestHasher("SHA-256");
+
+	/**
+	 * Non-cryptographic CRC-32 combined with the content length. Much faster than
+	 * MD5 and sufficient to detect changed bundles, but not collision resistant.
+	 */
+	BundleHash CRC32 = BundleHashers.CrcHasher::new;
+
+	Hasher newHasher();
+
+	interface Hasher {
+
+		void update(byte[] data, int offset, int length);
+
+		/**
+		 * Returns the URL-safe Base64 encoded hash of all data passed to
+		 * {@link #update(byte[], int, int)}.
+		 */
+		String hash();
+	}
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.zip.CRC32;
+
+final class BundleHashers {
+
+	private BundleHashers() {
+		// utility class
+	}
+
+	final static class MessageDigestHasher implements BundleHash.Hasher {
+		private final MessageDigest digest;
+
+		MessageDigestHasher(String algorithm) {
+			try {
+				this.digest = MessageDigest.getInstance(algorithm);
+			}
+			catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public void update(byte[] data, int offset, int length) {
+			this.digest.update(data, offset, length);
+		}
+
+		@Override
+		public String hash() {
+			return Base64.getUrlEncoder().encodeToString(this.digest.digest());
+		}
+	}
+
+	final static class CrcHasher implements BundleHash.Hasher {
+		private final CRC32 crc = new CRC32();
+
+		private long length = 0;
+
+		@Override
+		public void update(byte[] data, int offset, int length) {
+			this.crc.update(data, offset, length);
+			this.length += length;
+		}
+
+		@Override
+		public String hash() {
+			byte[] value = ByteBuffer.allocate(8).putInt((int) this.crc.getValue())
+					.putInt((int) this.length).array();
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(value);
+		}
+	}
+
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+/**
+ * Where the {@link ResourceServlet}s keep the bytes of the bundles, see
+ * {@link WebResourceProcessor#setBundleStorage(BundleStorage)}.
+ */
+public enum BundleStorage {
+
+	/**
+	 * Byte arrays on the Java heap, the default.
+	 */
+	HEAP,
+
+	/**
+	 * Direct {@link java.nio.ByteBuffer}s outside of the Java heap.
+	 */
+	DIRECT,
+
+	/**
+	 * Files in the storage directory that are mapped into memory. Tomcat sends them
+	 * with sendfile when the connector supports it.
+	 */
+	MAPPED
+
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the {@link BundleContent} of the published bundles and keeps track of the
+ * files of {@link BundleStorage#MAPPED}.
+ */
+final class BundleStorageFiles {
+
+	private final static Logger log = LoggerFactory.getLogger("ch.rasc.edsutil");
+
+	private static final long GRACE_MILLIS = 60L * 1000L;
+
+	/**
+	 * Replaced files and when they were replaced. Tomcat opens a sendfile response
+	 * only after the servlet returned, so they are kept for a while.
+	 */
+	private final Map<Path, Long> retiredFiles = new LinkedHashMap<>();
+
+	private List<Path> currentFiles = Collections.emptyList();
+
+	private BundleStorage storage = BundleStorage.HEAP;
+
+	private Path directory = null;
+
+	void setStorage(BundleStorage storage) {
+		this.storage = storage;
+	}
+
+	void setDirectory(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the content in the configured storage, the files that are written are
+	 * added to the given list.
+	 */
+	BundleContent store(String fileName, byte[] data, List<Path> files)
+			throws IOException {
+		if (data == null) {
+			return null;
+		}
+
+		switch (this.storage) {
+		case DIRECT:
+			return BundleContent.direct(data);
+		case MAPPED:
+			Path file = Files.createTempFile(getDirectory(), null,
+					"-" + fileName.replace('/', '_'));
+			Files.write(file, data);
+			files.add(file);
+			return BundleContent.mapped(file);
+		default:
+			return BundleContent.heap(data);
+		}
+	}
+
+	private synchronized Path getDirectory() throws IOException {
+		if (this.directory == null) {
+			this.directory = Files.createTempDirectory("webresources");
+			this.directory.toFile().deleteOnExit();
+		}
+		else {
+			Files.createDirectories(this.directory);
+		}
+		return this.directory;
+	}
+
+	/**
+	 * Retires the files of the last publish. Retired files are deleted at a later
+	 * call once they have not been served for a minute.
+	 */
+	synchronized void replace(List<Path> files) {
+		long now = System.currentTimeMillis();
+		for (Path file : this.currentFiles) {
+			this.retiredFiles.put(file, now);
+		}
+		this.currentFiles = files;
+		deleteRetiredFiles(now - GRACE_MILLIS);
+	}
+
+	/**
+	 * Deletes all files, called when the dispatcher is destroyed.
+	 */
+	synchronized void deleteAll() {
+		for (Path file : this.currentFiles) {
+			delete(file);
+		}
+		this.currentFiles = Collections.emptyList();
+		deleteRetiredFiles(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Deletes the files that were replaced before the given time. Files that cannot
+	 * be deleted yet (still mapped on Windows) are tried again later.
+	 */
+	private void deleteRetiredFiles(long retiredBefore) {
+		for (Iterator<Map.Entry<Path, Long>> it = this.retiredFiles.entrySet()
+				.iterator(); it.hasNext();) {
+			Map.Entry<Path, Long> entry = it.next();
+			if (entry.getValue() <= retiredBefore && delete(entry.getKey())) {
+				it.remove();
+			}
+		}
+	}
+
+	private static boolean delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+			return true;
+		}
+		catch (IOException e) {
+			log.debug("delete " + file, e);
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.io.IOException;
+
+/**
+ * Storage for processed bundles that several nodes of a cluster share, so that only
+ * one of them has to minify the web resources. Entries are addressed by a hash of
+ * all sources and of the settings that change the output, see
+ * {@link WebResourceProcessor#setBundleStore(BundleStore)}.
+ */
+public interface BundleStore {
+
+	/**
+	 * Returns the manifest stored under the key. When there is none, one caller
+	 * across all nodes runs the builder and stores its result, the other callers wait
+	 * for it.
+	 */
+	WebResourceManifest loadOrBuild(String key, ManifestBuilder builder)
+			throws IOException;
+
+	@FunctionalInterface
+	interface ManifestBuilder {
+		WebResourceManifest build() throws IOException;
+	}
+
+}
@@ -0,0 +1,424 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * Rewrites the urls of CSS files: relative to the context path, inlined as data URIs
+ * or fingerprinted. Also inlines the files imported with {@code @import}.
+ */
+final class CssRewriter {
+
+	private final static Logger log = LoggerFactory.getLogger("ch.rasc.edsutil");
+
+	private final static Pattern CSS_URL_PATTERN = Pattern.compile(
+			"(.*?url.*?\\(\\s*'?)(.*?)(\\?.*?)??('?\\s*\\))", Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * Matches comments, so that commented out rules are skipped, and
+	 * {@code @import} rules: group 2 or 4 is the url, group 5 the media query.
+	 */
+	private final static Pattern CSS_IMPORT_PATTERN = Pattern.compile(
+			"/\\*.*?\\*/|@import\\s*(?:url\\(\\s*(['\"]?)(.*?)\\1\\s*\\)|(['\"])(.*?)\\3)\\s*([^;]*);",
+			Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+
+	private final String contextPath;
+
+	private final ServletContext servletContext;
+
+	private final Function<String, String> servletPathResolver;
+
+	private final BundleHash bundleHash;
+
+	private final int inlineImageMaxSize;
+
+	private final boolean fingerprintAssets;
+
+	private final boolean watch;
+
+	CssRewriter(String contextPath, ServletContext servletContext,
+			Function<String, String> servletPathResolver, BundleHash bundleHash,
+			int inlineImageMaxSize, boolean fingerprintAssets, boolean watch) {
+		this.contextPath = contextPath;
+		this.servletContext = servletContext;
+		this.servletPathResolver = servletPathResolver;
+		this.bundleHash = bundleHash;
+		this.inlineImageMaxSize = inlineImageMaxSize;
+		this.fingerprintAssets = fingerprintAssets;
+		this.watch = watch;
+	}
+
+	String changeImageUrls(WebResource cssResource, String cssSourceCode,
+			WebResourceSources sources) {
+		Matcher matcher = CSS_URL_PATTERN.matcher(cssSourceCode);
+		StringBuffer sb = new StringBuffer();
+
+		Path basePath = Paths.get(this.contextPath + cssResource.getPath());
+
+		while (matcher.find()) {
+			String url = matcher.group(2);
+			url = url.trim();
+			if (url.equals("#default#VML") || url.startsWith("data:")) {
+				continue;
+			}
+			String rewrittenUrl = rewriteCssUrl(cssResource, url, sources);
+			if (rewrittenUrl != null) {
+				// the query is dropped from data URIs
+				matcher.appendReplacement(sb,
+						"$1" + Matcher.quoteReplacement(rewrittenUrl)
+								+ (rewrittenUrl.startsWith("data:") ? "$4" : "$3$4"));
+				continue;
+			}
+			Path pa = basePath.resolveSibling(url).normalize();
+			matcher.appendReplacement(sb, "$1" + pa.toString().replace("\\", "/")
+					+ "$3$4");
+		}
+		matcher.appendTail(sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the url that replaces the url in a CSS file: a data URI for small
+	 * images, a fingerprinted url or null to keep the url as it is.
+	 */
+	private String rewriteCssUrl(WebResource cssResource, String url,
+			WebResourceSources sources) {
+		String assetUrl = getRelativeAssetUrl(url);
+		if (assetUrl == null) {
+			return null;
+		}
+
+		if (this.watch) {
+			// a changed image or font invalidates the CSS file
+			try {
+				sources.addDependency(cssResource.getResource(), cssResource
+						.getResource().createRelative(getAssetPath(assetUrl)));
+			}
+			catch (IOException e) {
+				log.debug("resolve asset '" + assetUrl + "' of '"
+						+ cssResource.getResource().getDescription() + "'", e);
+			}
+		}
+
+		if (this.inlineImageMaxSize > 0) {
+			String dataUri = inlineImage(cssResource.getResource(), assetUrl, sources);
+			if (dataUri != null) {
+				return dataUri;
+			}
+		}
+
+		// imported style sheets are not processed, they keep their url
+		if (this.fingerprintAssets && !this.watch
+				&& !assetUrl.toLowerCase().contains(".css")) {
+			return fingerprintAsset(cssResource, assetUrl, sources);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the relative urls of a CSS file that {@link #changeImageUrls} may inline
+	 * or fingerprint.
+	 */
+	static List<String> getAssetUrls(String cssSourceCode) {
+		List<String> assetUrls = new ArrayList<>();
+		Matcher matcher = CSS_URL_PATTERN.matcher(cssSourceCode);
+		while (matcher.find()) {
+			String assetUrl = getRelativeAssetUrl(matcher.group(2).trim());
+			if (assetUrl != null && !assetUrl.startsWith("data:")) {
+				assetUrls.add(assetUrl);
+			}
+		}
+		return assetUrls;
+	}
+
+	/**
+	 * Returns the url without quotes, null for absolute and external urls.
+	 */
+	private static String getRelativeAssetUrl(String url) {
+		String assetUrl = url;
+		if (assetUrl.length() > 1 && assetUrl.charAt(0) == '"'
+				&& assetUrl.charAt(assetUrl.length() - 1) == '"') {
+			assetUrl = assetUrl.substring(1, assetUrl.length() - 1).trim();
+		}
+
+		if (assetUrl.isEmpty() || assetUrl.startsWith("/") || assetUrl.contains("//")) {
+			return null;
+		}
+		return assetUrl;
+	}
+
+	/**
+	 * Returns the url without the query and the fragment.
+	 */
+	static String getAssetPath(String url) {
+		String path = url;
+		int fragmentIx = path.indexOf('#');
+		if (fragmentIx != -1) {
+			path = path.substring(0, fragmentIx);
+		}
+		int queryIx = path.indexOf('?');
+		if (queryIx != -1) {
+			path = path.substring(0, queryIx);
+		}
+		return path;
+	}
+
+	private String fingerprintAsset(WebResource cssResource, String url,
+			WebResourceSources sources) {
+		String path = getAssetPath(url);
+		int fragmentIx = url.indexOf('#');
+		String fragment = fragmentIx != -1 ? url.substring(fragmentIx) : "";
+
+		try {
+			Resource asset = cssResource.getResource().createRelative(path);
+			if (!asset.exists()) {
+				return null;
+			}
+
+			String assetPath = Paths.get(cssResource.getPath()).resolveSibling(path)
+					.normalize().toString().replace("\\", "/");
+			WebResourceBundle bundle = sources.getAsset(asset,
+					() -> createAsset(asset, assetPath));
+			return this.contextPath + bundle.getServletPath() + fragment;
+		}
+		catch (IOException | UncheckedIOException e) {
+			log.warn("fingerprint asset '" + url + "' of '"
+					+ cssResource.getResource().getDescription() + "'", e);
+			return null;
+		}
+	}
+
+	private WebResourceBundle createAsset(Resource asset, String assetPath) {
+		byte[] content;
+		try (InputStream is = asset.getInputStream()) {
+			content = FileCopyUtils.copyToByteArray(is);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		BundleHash.Hasher hasher = this.bundleHash.newHasher();
+		hasher.update(content, 0, content.length);
+		String hash = hasher.hash();
+
+		String relativePath = assetPath.startsWith("/") ? assetPath.substring(1)
+				: assetPath;
+		int extensionIx = relativePath.lastIndexOf('.');
+		if (extensionIx <= relativePath.lastIndexOf('/')) {
+			extensionIx = relativePath.length();
+		}
+		String fileName = relativePath.substring(0, extensionIx) + hash
+				+ relativePath.substring(extensionIx);
+
+		return new WebResourceBundle(fileName, this.servletPathResolver.apply(fileName),
+				getAssetContentType(relativePath), hash, content);
+	}
+
+	private String getAssetContentType(String path) {
+		if (this.servletContext != null) {
+			String mimeType = this.servletContext.getMimeType(path);
+			if (mimeType != null) {
+				return mimeType;
+			}
+		}
+
+		String mimeType = getImageMimeType(path);
+		if (mimeType != null) {
+			return mimeType;
+		}
+
+		String lowerCasePath = path.toLowerCase();
+		if (lowerCasePath.endsWith(".woff")) {
+			return "application/font-woff";
+		}
+		if (lowerCasePath.endsWith(".woff2")) {
+			return "font/woff2";
+		}
+		if (lowerCasePath.endsWith(".ttf")) {
+			return "application/x-font-ttf";
+		}
+		if (lowerCasePath.endsWith(".otf")) {
+			return "application/x-font-opentype";
+		}
+		if (lowerCasePath.endsWith(".eot")) {
+			return "application/vnd.ms-fontobject";
+		}
+		return "application/octet-stream";
+	}
+
+	/**
+	 * Returns the image as a data URI or null when it is not an image, does not exist
+	 * or is larger than the inline threshold.
+	 */
+	private String inlineImage(Resource cssResource, String imageUrl,
+			WebResourceSources sources) {
+		String mimeType = getImageMimeType(imageUrl);
+		if (mimeType == null || imageUrl.contains("#")) {
+			return null;
+		}
+
+		try {
+			Resource image = cssResource.createRelative(getAssetPath(imageUrl));
+			if (!image.exists()) {
+				return null;
+			}
+			return sources.getDataUri(image, mimeType, this.inlineImageMaxSize);
+		}
+		catch (IOException e) {
+			log.warn("inline image '" + imageUrl + "' of '"
+					+ cssResource.getDescription() + "'", e);
+			return null;
+		}
+	}
+
+	private static String getImageMimeType(String url) {
+		int queryIx = url.indexOf('?');
+		String path = (queryIx != -1 ? url.substring(0, queryIx) : url).toLowerCase();
+		if (path.endsWith(".png")) {
+			return "image/png";
+		}
+		if (path.endsWith(".gif")) {
+			return "image/gif";
+		}
+		if (path.endsWith(".jpg") || path.endsWith(".jpeg")) {
+			return "image/jpeg";
+		}
+		if (path.endsWith(".svg")) {
+			return "image/svg+xml";
+		}
+		if (path.endsWith(".webp")) {
+			return "image/webp";
+		}
+		return null;
+	}
+
+	/**
+	 * Inserts the files imported with {@code @import} in front of the importing file,
+	 * every file only once.
+	 */
+	static List<WebResource> inlineImports(List<WebResource> webResources,
+			WebResourceSources sources) throws IOException {
+		List<WebResource> result = new ArrayList<>();
+		Set<String> added = new HashSet<>();
+		for (WebResource webResource : webResources) {
+			if (webResource.isMinify()) {
+				addWithImports(webResource, added, new LinkedHashSet<>(), result,
+						sources);
+			}
+			else {
+				result.add(webResource);
+			}
+		}
+		return result;
+	}
+
+	private static void addWithImports(WebResource webResource, Set<String> added,
+			Set<String> chain, List<WebResource> result, WebResourceSources sources)
+			throws IOException {
+		String key = WebResourceSources.getKey(webResource.getResource());
+		if (!added.add(key)) {
+			return;
+		}
+
+		chain.add(key);
+		Matcher matcher = CSS_IMPORT_PATTERN.matcher(sources.getText(webResource
+				.getResource()));
+		while (matcher.find()) {
+			Resource imported = resolveCssImport(webResource.getResource(), matcher);
+			if (imported == null) {
+				continue;
+			}
+			if (!imported.exists()) {
+				log.warn("css import '" + getCssImportUrl(matcher) + "' of '"
+						+ webResource.getResource().getDescription() + "' not found");
+				continue;
+			}
+
+			String importedKey = WebResourceSources.getKey(imported);
+			if (chain.contains(importedKey)) {
+				log.warn("circular css import: " + String.join(" -> ", chain) + " -> "
+						+ importedKey);
+				continue;
+			}
+
+			String importedPath = Paths.get(webResource.getPath())
+					.resolveSibling(getCssImportUrl(matcher)).normalize().toString()
+					.replace("\\", "/");
+			addWithImports(new WebResource(webResource.getVarName(), importedPath,
+					imported, true, webResource.getChunk(), webResource.getMinifier()),
+					added, chain, result, sources);
+		}
+		chain.remove(key);
+
+		result.add(webResource);
+	}
+
+	static String removeImports(Resource css, String cssSourceCode)
+			throws IOException {
+		Matcher matcher = CSS_IMPORT_PATTERN.matcher(cssSourceCode);
+		StringBuffer sb = new StringBuffer();
+		while (matcher.find()) {
+			Resource imported = resolveCssImport(css, matcher);
+			if (imported != null && imported.exists()) {
+				matcher.appendReplacement(sb, "");
+			}
+		}
+		matcher.appendTail(sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the local file of an {@code @import} rule, null for comments, remote
+	 * urls and imports with a media query.
+	 */
+	private static Resource resolveCssImport(Resource css, Matcher matcher)
+			throws IOException {
+		String url = getCssImportUrl(matcher);
+		if (url == null || url.isEmpty() || url.startsWith("/") || url.contains("//")
+				|| StringUtils.hasText(matcher.group(5))) {
+			return null;
+		}
+		return css.createRelative(url);
+	}
+
+	private static String getCssImportUrl(Matcher matcher) {
+		String url = matcher.group(2) != null ? matcher.group(2) : matcher.group(4);
+		return url != null ? url.trim() : null;
+	}
+
+}
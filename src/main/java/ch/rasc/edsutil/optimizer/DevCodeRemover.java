@@ -0,0 +1,136 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+/**
+ * Removes the code that is only needed during development from a JavaScript source
+ * in one pass: blocks between the {@code <debug>} and {@code </debug>} marker
+ * comments and the {@code requires} and {@code uses} arrays of Ext class
+ * definitions that are followed by a comma. Strings, regular expressions and other
+ * comments are never touched.
+ */
+final class DevCodeRemover {
+
+	private static final String DEBUG_START = "/* <debug> */";
+
+	private static final String DEBUG_END = "/* </debug> */";
+
+	private final String source;
+
+	private final JsTokenizer tokenizer;
+
+	private StringBuilder out;
+
+	private int copyFrom = 0;
+
+	private DevCodeRemover(String source) {
+		this.source = source;
+		this.tokenizer = new JsTokenizer(source);
+	}
+
+	/**
+	 * Returns the source without the development code, or the source itself when
+	 * there was nothing to remove.
+	 */
+	static String remove(String source) {
+		return new DevCodeRemover(source).remove();
+	}
+
+	private String remove() {
+		int debugStart = -1;
+
+		JsTokenizer.TokenType type = this.tokenizer.next();
+		while (type != JsTokenizer.TokenType.EOF) {
+			if (type == JsTokenizer.TokenType.COMMENT) {
+				if (debugStart == -1 && isComment(DEBUG_START)) {
+					debugStart = this.tokenizer.getStart();
+				}
+				else if (debugStart != -1 && isComment(DEBUG_END)) {
+					cut(debugStart, this.tokenizer.getEnd());
+					debugStart = -1;
+				}
+			}
+			else if (debugStart == -1
+					&& type == JsTokenizer.TokenType.IDENTIFIER
+					&& (this.tokenizer.isIdentifier("requires") || this.tokenizer
+							.isIdentifier("uses"))) {
+				// the tokenizer stops on the first token that does not match, it is
+				// processed by the next iteration
+				type = removeClassList();
+				continue;
+			}
+			type = this.tokenizer.next();
+		}
+
+		if (this.out == null) {
+			return this.source;
+		}
+		this.out.append(this.source, this.copyFrom, this.source.length());
+		return this.out.toString();
+	}
+
+	/**
+	 * Cuts {@code name: [...],} starting at the current identifier. Only whitespace
+	 * is allowed between the tokens outside of the brackets.
+	 */
+	private JsTokenizer.TokenType removeClassList() {
+		int start = this.tokenizer.getStart();
+
+		JsTokenizer.TokenType type = this.tokenizer.next();
+		if (!this.tokenizer.isPunctuator(':')) {
+			return type;
+		}
+		type = this.tokenizer.next();
+		if (!this.tokenizer.isPunctuator('[')) {
+			return type;
+		}
+
+		int depth = 1;
+		while (depth > 0) {
+			type = this.tokenizer.next();
+			if (type == JsTokenizer.TokenType.EOF) {
+				return type;
+			}
+			if (this.tokenizer.isPunctuator('[')) {
+				depth++;
+			}
+			else if (this.tokenizer.isPunctuator(']')) {
+				depth--;
+			}
+		}
+
+		type = this.tokenizer.next();
+		if (!this.tokenizer.isPunctuator(',')) {
+			return type;
+		}
+		cut(start, this.tokenizer.getEnd());
+		return this.tokenizer.next();
+	}
+
+	private boolean isComment(String comment) {
+		return this.tokenizer.getEnd() - this.tokenizer.getStart() == comment.length()
+				&& this.source.startsWith(comment, this.tokenizer.getStart());
+	}
+
+	private void cut(int start, int end) {
+		if (this.out == null) {
+			this.out = new StringBuilder(this.source.length());
+		}
+		this.out.append(this.source, this.copyFrom, start);
+		this.copyFrom = end;
+	}
+
+}
@@ -0,0 +1,372 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import ch.rasc.edsutil.optimizer.JsTokenizer.TokenType;
+
+/**
+ * Extracts the class defined with <code>Ext.define</code>, its aliases and the
+ * classes it references in a single pass over the source. Comments and the content
+ * of string literals are ignored.
+ */
+final class ExtClassScanner {
+
+	private static final int MAX_NAME_LENGTH = 128;
+
+	private enum State {
+		NONE, EXT, EXT_DOT, DEFINE, DEFINE_PAREN, DEFINE_NAME, BODY, SINGLE_KEY,
+		SINGLE_VALUE, OVERRIDE_KEY, OVERRIDE_VALUE, LIST_KEY, LIST_VALUE, LIST
+	}
+
+	private ExtClassScanner() {
+		// utility class
+	}
+
+	static ExtClass scan(CharSequence source) {
+		JsTokenizer tokenizer = new JsTokenizer(source);
+
+		String className = null;
+		String override = null;
+		Set<String> references = new LinkedHashSet<>();
+		Set<String> aliases = new LinkedHashSet<>();
+		Set<String> nameReferences = new LinkedHashSet<>();
+		Set<String> mvcNames = new LinkedHashSet<>();
+		Set<String> appNames = new LinkedHashSet<>();
+
+		State state = State.NONE;
+		int depth = 0;
+		String pendingValue = null;
+		Set<String> target = references;
+		String prefix = "";
+
+		// depth of the braces, and of the body of the last Ext.define or
+		// Ext.application call, -1 outside of a body
+		int braceDepth = 0;
+		int bodyDepth = -1;
+
+		while (tokenizer.nextSignificant() != TokenType.EOF) {
+			TokenType type = tokenizer.getType();
+			if (type == TokenType.PUNCTUATOR) {
+				if (tokenizer.isPunctuator('{')) {
+					braceDepth++;
+				}
+				else if (tokenizer.isPunctuator('}')) {
+					braceDepth--;
+					if (braceDepth < bodyDepth) {
+						bodyDepth = -1;
+					}
+				}
+			}
+			else if (type == TokenType.STRING) {
+				String value = tokenizer.getStringValue();
+				if (isName(value)) {
+					nameReferences.add(value);
+				}
+			}
+
+			switch (state) {
+			case EXT:
+				state = tokenizer.isPunctuator('.') ? State.EXT_DOT : State.NONE;
+				break;
+			case EXT_DOT:
+				if (tokenizer.isIdentifier("define")) {
+					state = State.DEFINE;
+				}
+				else if (tokenizer.isIdentifier("application")) {
+					// Ext.application({ ... }) has a body like a class
+					state = State.DEFINE_NAME;
+				}
+				else {
+					state = State.NONE;
+				}
+				break;
+			case DEFINE:
+				state = tokenizer.isPunctuator('(') ? State.DEFINE_PAREN : State.NONE;
+				break;
+			case DEFINE_PAREN:
+				if (tokenizer.getType() == TokenType.STRING) {
+					if (className == null) {
+						className = tokenizer.getStringValue();
+					}
+					state = State.DEFINE_NAME;
+				}
+				else {
+					state = State.NONE;
+				}
+				break;
+			case DEFINE_NAME:
+				state = tokenizer.isPunctuator(',') || tokenizer.isPunctuator('(') ? State.BODY
+						: State.NONE;
+				break;
+			case BODY:
+				if (tokenizer.isPunctuator('{')) {
+					bodyDepth = braceDepth;
+				}
+				state = State.NONE;
+				break;
+			case SINGLE_KEY:
+				state = tokenizer.isPunctuator(':') ? State.SINGLE_VALUE : State.NONE;
+				break;
+			case SINGLE_VALUE:
+				if (tokenizer.getType() == TokenType.STRING) {
+					target.add(prefix + tokenizer.getStringValue());
+				}
+				state = State.NONE;
+				break;
+			case OVERRIDE_KEY:
+				state = tokenizer.isPunctuator(':') ? State.OVERRIDE_VALUE : State.NONE;
+				break;
+			case OVERRIDE_VALUE:
+				if (tokenizer.getType() == TokenType.STRING) {
+					String value = tokenizer.getStringValue();
+					references.add(value);
+					if (override == null) {
+						override = value;
+					}
+				}
+				state = State.NONE;
+				break;
+			case LIST_KEY:
+				state = tokenizer.isPunctuator(':') ? State.LIST_VALUE : State.NONE;
+				break;
+			case LIST_VALUE:
+				if (tokenizer.getType() == TokenType.STRING) {
+					target.add(prefix + tokenizer.getStringValue());
+					state = State.NONE;
+				}
+				else if (tokenizer.isPunctuator('[') || tokenizer.isPunctuator('{')) {
+					depth = 1;
+					pendingValue = null;
+					state = State.LIST;
+				}
+				else {
+					state = State.NONE;
+				}
+				break;
+			case LIST:
+				if (tokenizer.getType() == TokenType.STRING) {
+					addReference(target, prefix, pendingValue);
+					pendingValue = tokenizer.getStringValue();
+				}
+				else if (tokenizer.isPunctuator(':')) {
+					// the last string was a key of an object literal
+					pendingValue = null;
+				}
+				else {
+					addReference(target, prefix, pendingValue);
+					pendingValue = null;
+					if (tokenizer.isPunctuator('[') || tokenizer.isPunctuator('{')
+							|| tokenizer.isPunctuator('(')) {
+						depth++;
+					}
+					else if (tokenizer.isPunctuator(']') || tokenizer.isPunctuator('}')
+							|| tokenizer.isPunctuator(')')) {
+						depth--;
+						if (depth == 0) {
+							state = State.NONE;
+						}
+					}
+				}
+				break;
+			default:
+				break;
+			}
+
+			if (state == State.NONE && tokenizer.getType() == TokenType.IDENTIFIER) {
+				target = references;
+				prefix = "";
+				state = keyState(tokenizer);
+				if (state == State.NONE) {
+					String mvcType = mvcType(tokenizer);
+					if (mvcType != null) {
+						state = State.LIST_KEY;
+						target = mvcNames;
+						prefix = mvcType + ".";
+					}
+					else if (braceDepth == bodyDepth) {
+						state = bodyKeyState(tokenizer);
+						target = tokenizer.isIdentifier("name") ? appNames : aliases;
+						prefix = tokenizer.isIdentifier("xtype") ? "widget." : "";
+					}
+				}
+			}
+		}
+
+		if (className != null && className.indexOf('.') > 0) {
+			appNames.add(className.substring(0, className.indexOf('.')));
+		}
+		for (String mvcName : mvcNames) {
+			// controller.Main: Main may already be a full class name
+			String name = mvcName.substring(mvcName.indexOf('.') + 1);
+			nameReferences.add(name);
+			for (String appName : appNames) {
+				nameReferences.add(appName + "." + mvcName);
+			}
+		}
+
+		return new ExtClass(className, override, references, aliases, nameReferences);
+	}
+
+	private static State keyState(JsTokenizer tokenizer) {
+		switch (tokenizer.getFirstChar()) {
+		case 'E':
+			return tokenizer.isIdentifier("Ext") ? State.EXT : State.NONE;
+		case 'e':
+			return tokenizer.isIdentifier("extend") ? State.SINGLE_KEY : State.NONE;
+		case 'c':
+			return tokenizer.isIdentifier("controller") ? State.SINGLE_KEY : State.NONE;
+		case 'o':
+			return tokenizer.isIdentifier("override") ? State.OVERRIDE_KEY : State.NONE;
+		case 'm':
+			if (tokenizer.isIdentifier("model")) {
+				return State.SINGLE_KEY;
+			}
+			return tokenizer.isIdentifier("mixins") ? State.LIST_KEY : State.NONE;
+		case 'r':
+			return tokenizer.isIdentifier("requires") ? State.LIST_KEY : State.NONE;
+		case 'u':
+			return tokenizer.isIdentifier("uses") ? State.LIST_KEY : State.NONE;
+		default:
+			return State.NONE;
+		}
+	}
+
+	/**
+	 * Returns the type of the classes that the short names of a MVC list name, null
+	 * when the token is not one of these lists.
+	 */
+	private static String mvcType(JsTokenizer tokenizer) {
+		switch (tokenizer.getFirstChar()) {
+		case 'c':
+			return tokenizer.isIdentifier("controllers") ? "controller" : null;
+		case 'v':
+			return tokenizer.isIdentifier("views") ? "view" : null;
+		case 's':
+			return tokenizer.isIdentifier("stores") ? "store" : null;
+		case 'm':
+			return tokenizer.isIdentifier("models") ? "model" : null;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the state for the keys that are only meaningful directly in the body
+	 * of a class or an application.
+	 */
+	private static State bodyKeyState(JsTokenizer tokenizer) {
+		switch (tokenizer.getFirstChar()) {
+		case 'a':
+			return tokenizer.isIdentifier("alias")
+					|| tokenizer.isIdentifier("alternateClassName") ? State.LIST_KEY
+					: State.NONE;
+		case 'x':
+			return tokenizer.isIdentifier("xtype") ? State.LIST_KEY : State.NONE;
+		case 'n':
+			return tokenizer.isIdentifier("name") ? State.SINGLE_KEY : State.NONE;
+		default:
+			return State.NONE;
+		}
+	}
+
+	private static void addReference(Set<String> references, String prefix,
+			String reference) {
+		if (reference != null) {
+			references.add(prefix + reference);
+		}
+	}
+
+	/**
+	 * Returns true for strings that can be a class name, an alias or an xtype.
+	 */
+	private static boolean isName(String value) {
+		if (value.isEmpty() || value.length() > MAX_NAME_LENGTH
+				|| !Character.isJavaIdentifierStart(value.charAt(0))) {
+			return false;
+		}
+		for (int i = 1; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (!Character.isJavaIdentifierPart(c) && c != '.' && c != '-') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static final class ExtClass {
+
+		private final String className;
+
+		private final String override;
+
+		private final Set<String> references;
+
+		private final Set<String> aliases;
+
+		private final Set<String> nameReferences;
+
+		ExtClass(String className, String override, Set<String> references,
+				Set<String> aliases, Set<String> nameReferences) {
+			this.className = className;
+			this.override = override;
+			this.references = Collections.unmodifiableSet(references);
+			this.aliases = Collections.unmodifiableSet(aliases);
+			this.nameReferences = Collections.unmodifiableSet(nameReferences);
+		}
+
+		/**
+		 * Name of the first class defined in the source, <code>null</code> if the
+		 * source does not contain an <code>Ext.define</code> call.
+		 */
+		String getClassName() {
+			return this.className;
+		}
+
+		/**
+		 * Name of the class that is overridden with <code>override</code>,
+		 * <code>null</code> if the class is not an override.
+		 */
+		String getOverride() {
+			return this.override;
+		}
+
+		Set<String> getReferences() {
+			return this.references;
+		}
+
+		/**
+		 * Aliases and alternate class names of the classes in the source. An
+		 * <code>xtype</code> is returned as <code>widget.xtype</code>.
+		 */
+		Set<String> getAliases() {
+			return this.aliases;
+		}
+
+		/**
+		 * Names the source may use at runtime, e.g. in <code>Ext.create</code>, as an
+		 * <code>xtype</code> or in a MVC list.
+		 */
+		Set<String> getNameReferences() {
+			return this.nameReferences;
+		}
+
+	}
+
+}
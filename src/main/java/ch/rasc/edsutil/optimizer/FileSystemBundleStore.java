@@ -0,0 +1,243 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * {@link BundleStore} in a directory that all nodes mount. The node that creates
+ * the lock file of a key builds the entry, the other nodes poll until it appears.
+ * Old entries are not removed.
+ */
+public class FileSystemBundleStore implements BundleStore {
+
+	private final static Logger log = LoggerFactory.getLogger("ch.rasc.edsutil");
+
+	private static final String LOCK_SUFFIX = ".lock";
+
+	private final Path directory;
+
+	private long lockTimeoutMillis = TimeUnit.MINUTES.toMillis(10);
+
+	private long pollIntervalMillis = 500;
+
+	public FileSystemBundleStore(Path directory) {
+		this.directory = directory;
+	}
+
+	public Path getDirectory() {
+		return this.directory;
+	}
+
+	/**
+	 * Age after which the lock file of a key is considered stale. The builder touches
+	 * the lock file four times within this period. 10 minutes by default.
+	 */
+	public void setLockTimeoutMillis(long lockTimeoutMillis) {
+		this.lockTimeoutMillis = lockTimeoutMillis;
+	}
+
+	public void setPollIntervalMillis(long pollIntervalMillis) {
+		this.pollIntervalMillis = pollIntervalMillis;
+	}
+
+	@Override
+	public WebResourceManifest loadOrBuild(String key, ManifestBuilder builder)
+			throws IOException {
+		Path entry = this.directory.resolve(key);
+		Path lock = this.directory.resolve(key + LOCK_SUFFIX);
+		Files.createDirectories(this.directory);
+
+		boolean waiting = false;
+		while (true) {
+			WebResourceManifest manifest = read(entry);
+			if (manifest != null) {
+				log.info("loaded bundles '{}' from {}", key, this.directory);
+				return manifest;
+			}
+
+			byte[] token = UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8);
+			try {
+				Files.write(lock, token, StandardOpenOption.CREATE_NEW,
+						StandardOpenOption.WRITE);
+			}
+			catch (FileAlreadyExistsException e) {
+				byte[] staleToken = readToken(lock);
+				if (staleToken != null && isStale(lock)) {
+					log.warn("taking over stale lock " + lock);
+					deleteLock(lock, staleToken);
+				}
+				else {
+					if (!waiting) {
+						log.info("waiting for another node to build the bundles '{}'", key);
+						waiting = true;
+					}
+					sleep();
+				}
+				continue;
+			}
+
+			ScheduledExecutorService heartbeat = startHeartbeat(lock, token);
+			try {
+				// published between the read and the creation of the lock
+				manifest = read(entry);
+				if (manifest != null) {
+					return manifest;
+				}
+				manifest = builder.build();
+				publish(entry, manifest);
+				return manifest;
+			}
+			finally {
+				heartbeat.shutdownNow();
+				deleteLock(lock, token);
+			}
+		}
+	}
+
+	/**
+	 * Touches the lock file while the bundles are built, so that the other nodes do
+	 * not take it over while the build takes longer than the lock timeout.
+	 */
+	private ScheduledExecutorService startHeartbeat(Path lock, byte[] token) {
+		ScheduledExecutorService heartbeat = Executors
+				.newSingleThreadScheduledExecutor(r -> {
+					Thread thread = new Thread(r, "bundle-store-lock");
+					thread.setDaemon(true);
+					return thread;
+				});
+		long period = Math.max(1, this.lockTimeoutMillis / 4);
+		heartbeat.scheduleAtFixedRate(() -> {
+			try {
+				if (Arrays.equals(readToken(lock), token)) {
+					Files.setLastModifiedTime(lock,
+							FileTime.fromMillis(System.currentTimeMillis()));
+				}
+				else {
+					log.warn("lost lock " + lock + " to another node");
+				}
+			}
+			catch (IOException e) {
+				log.warn("touching lock " + lock + " failed", e);
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+		return heartbeat;
+	}
+
+	/**
+	 * Deletes the lock file if it still contains the given token. Another node may
+	 * have taken it over in the meantime.
+	 */
+	private static void deleteLock(Path lock, byte[] token) throws IOException {
+		if (Arrays.equals(readToken(lock), token)) {
+			Files.deleteIfExists(lock);
+		}
+	}
+
+	private static byte[] readToken(Path lock) throws IOException {
+		try {
+			return Files.readAllBytes(lock);
+		}
+		catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	private static WebResourceManifest read(Path entry) throws IOException {
+		Path manifestFile = entry.resolve(WebResourceManifest.MANIFEST_FILE_NAME);
+		if (!Files.exists(manifestFile)) {
+			return null;
+		}
+		return WebResourceManifest.read(new FileSystemResource(manifestFile.toFile()));
+	}
+
+	private void publish(Path entry, WebResourceManifest manifest) throws IOException {
+		Path tempDirectory = this.directory.resolve("." + entry.getFileName() + "-"
+				+ UUID.randomUUID());
+		try {
+			manifest.write(tempDirectory);
+			try {
+				Files.move(tempDirectory, entry, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempDirectory, entry);
+			}
+			log.info("published bundles '{}' to {}", entry.getFileName(), this.directory);
+		}
+		catch (IOException e) {
+			if (!Files.exists(entry.resolve(WebResourceManifest.MANIFEST_FILE_NAME))) {
+				throw e;
+			}
+			// a node that took over a stale lock was faster
+		}
+		finally {
+			delete(tempDirectory);
+		}
+	}
+
+	private boolean isStale(Path lock) throws IOException {
+		try {
+			return System.currentTimeMillis()
+					- Files.getLastModifiedTime(lock).toMillis() > this.lockTimeoutMillis;
+		}
+		catch (NoSuchFileException e) {
+			return false;
+		}
+	}
+
+	private void sleep() throws InterruptedIOException {
+		try {
+			Thread.sleep(this.pollIntervalMillis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("waiting for the bundle store lock");
+		}
+	}
+
+	private static void delete(Path directory) throws IOException {
+		if (!Files.exists(directory)) {
+			return;
+		}
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * {@link ProcessingListener} that exposes the report of the last run as an MXBean
+ * on the platform MBean server.
+ *
+ * <pre>
+ * JmxProcessingListener jmx = new JmxProcessingListener(
+ * 		&quot;ch.rasc.edsutil:type=WebResourceProcessor,name=myapp&quot;);
+ * jmx.register();
+ * processor.addProcessingListener(jmx);
+ * </pre>
+ */
+public class JmxProcessingListener implements ProcessingListener,
+		ProcessingStatisticsMXBean {
+
+	private final ObjectName objectName;
+
+	private final AtomicLong runCount = new AtomicLong();
+
+	private volatile ProcessingReport report = new ProcessingReport(0,
+			Collections.<String, Long> emptyMap(),
+			Collections.<String, ProcessingReport.VariableStatistics> emptyMap(),
+			Collections.<ProcessingReport.FileStatistics> emptyList());
+
+	public JmxProcessingListener(String objectName) throws JMException {
+		this.objectName = new ObjectName(objectName);
+	}
+
+	public void register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(this.objectName)) {
+			server.unregisterMBean(this.objectName);
+		}
+		server.registerMBean(this, this.objectName);
+	}
+
+	public void unregister() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(this.objectName)) {
+			server.unregisterMBean(this.objectName);
+		}
+	}
+
+	@Override
+	public void processingCompleted(ProcessingReport processingReport) {
+		this.report = processingReport;
+		this.runCount.incrementAndGet();
+	}
+
+	@Override
+	public long getRunCount() {
+		return this.runCount.get();
+	}
+
+	@Override
+	public long getTotalMillis() {
+		return ProcessingReport.millis(this.report.getTotalNanos());
+	}
+
+	@Override
+	public Map<String, Long> getPhaseMillis() {
+		Map<String, Long> phaseMillis = new LinkedHashMap<>();
+		for (Map.Entry<String, Long> entry : this.report.getPhaseNanos().entrySet()) {
+			phaseMillis.put(entry.getKey(), ProcessingReport.millis(entry.getValue()));
+		}
+		return phaseMillis;
+	}
+
+	@Override
+	public Map<String, Long> getBytesIn() {
+		Map<String, Long> bytesIn = new LinkedHashMap<>();
+		for (Map.Entry<String, ProcessingReport.VariableStatistics> entry : this.report
+				.getVariables().entrySet()) {
+			bytesIn.put(entry.getKey(), entry.getValue().getBytesIn());
+		}
+		return bytesIn;
+	}
+
+	@Override
+	public Map<String, Long> getBytesOut() {
+		Map<String, Long> bytesOut = new LinkedHashMap<>();
+		for (Map.Entry<String, ProcessingReport.VariableStatistics> entry : this.report
+				.getVariables().entrySet()) {
+			bytesOut.put(entry.getKey(), entry.getValue().getBytesOut());
+		}
+		return bytesOut;
+	}
+
+	@Override
+	public List<String> getSlowestFiles() {
+		List<String> files = new ArrayList<>();
+		for (ProcessingReport.FileStatistics file : this.report.getSlowestFiles()) {
+			files.add(file.toString());
+		}
+		return files;
+	}
+
+	@Override
+	public String getReport() {
+		return this.report.toString();
+	}
+
+}
@@ -0,0 +1,429 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.util.BitSet;
+
+/**
+ * Minimal JavaScript tokenizer that splits a source into identifiers, string
+ * literals, punctuators and comments in one linear pass. It does not validate the
+ * source, it only knows enough of the grammar to never mistake the content of a
+ * comment, string, template or regular expression literal for code.
+ */
+final class JsTokenizer {
+
+	enum TokenType {
+		IDENTIFIER, NUMBER, STRING, TEMPLATE, REGEX, PUNCTUATOR, COMMENT, EOF
+	}
+
+	private static final String[] KEYWORDS_BEFORE_EXPRESSION = { "return", "typeof",
+			"instanceof", "in", "of", "new", "delete", "void", "throw", "case", "do",
+			"else", "yield", "await" };
+
+	private static final String[] KEYWORDS_BEFORE_STATEMENT_HEAD = { "if", "while",
+			"for", "with" };
+
+	private final CharSequence source;
+
+	private final int length;
+
+	private int pos;
+
+	private TokenType type;
+
+	private int start;
+
+	private int end;
+
+	private boolean regexAllowed = true;
+
+	private boolean statementHeadKeyword = false;
+
+	/**
+	 * Bit n is set when the parenthesis at depth n is the head of an if, while, for
+	 * or with statement, a statement and with it a regular expression may follow.
+	 */
+	private final BitSet statementHeads = new BitSet();
+
+	private int parenDepth = 0;
+
+	private char previousPunctuator = 0;
+
+	private boolean ambiguousSlash = false;
+
+	JsTokenizer(CharSequence source) {
+		this.source = source;
+		this.length = source.length();
+		this.pos = 0;
+	}
+
+	TokenType getType() {
+		return this.type;
+	}
+
+	int getStart() {
+		return this.start;
+	}
+
+	int getEnd() {
+		return this.end;
+	}
+
+	char getFirstChar() {
+		return this.end > this.start ? this.source.charAt(this.start) : 0;
+	}
+
+	String getText() {
+		return this.source.subSequence(this.start, this.end).toString();
+	}
+
+	boolean isPunctuator(char c) {
+		return this.type == TokenType.PUNCTUATOR && this.end - this.start == 1
+				&& this.source.charAt(this.start) == c;
+	}
+
+	/**
+	 * Returns true when the current token is a slash that was read as division
+	 * directly after a closing parenthesis or brace. In rare cases such a slash starts
+	 * a regular expression, e.g. after a block.
+	 */
+	boolean isAmbiguousSlash() {
+		return this.ambiguousSlash;
+	}
+
+	boolean isIdentifier(String name) {
+		return this.type == TokenType.IDENTIFIER && this.end - this.start == name.length()
+				&& regionMatches(this.start, name);
+	}
+
+	/**
+	 * Returns the value of the current string literal without the quotes. Escape
+	 * sequences are kept as they are in the source, class names never contain them.
+	 */
+	String getStringValue() {
+		int valueEnd = this.end;
+		if (valueEnd - this.start > 1
+				&& this.source.charAt(valueEnd - 1) == this.source.charAt(this.start)) {
+			valueEnd--;
+		}
+		return this.source.subSequence(this.start + 1, valueEnd).toString();
+	}
+
+	/**
+	 * Advances to the next token that is not a comment.
+	 */
+	TokenType nextSignificant() {
+		TokenType next;
+		do {
+			next = next();
+		}
+		while (next == TokenType.COMMENT);
+		return next;
+	}
+
+	/**
+	 * Advances to the next token. Whitespace is skipped, comments are returned as
+	 * {@link TokenType#COMMENT} tokens.
+	 */
+	TokenType next() {
+		skipWhitespace();
+
+		this.start = this.pos;
+		if (this.pos >= this.length) {
+			this.end = this.pos;
+			this.type = TokenType.EOF;
+			return this.type;
+		}
+
+		char c = this.source.charAt(this.pos);
+		char n = this.pos + 1 < this.length ? this.source.charAt(this.pos + 1) : 0;
+
+		if (c == '/' && n == '/') {
+			skipLineComment();
+			return token(TokenType.COMMENT);
+		}
+		if (c == '/' && n == '*') {
+			skipBlockComment();
+			return token(TokenType.COMMENT);
+		}
+		if (c == '\'' || c == '"') {
+			skipString(c);
+			return significant(TokenType.STRING, false);
+		}
+		if (c == '`') {
+			skipTemplate();
+			return significant(TokenType.TEMPLATE, false);
+		}
+		if (c == '/' && this.regexAllowed) {
+			skipRegex();
+			return significant(TokenType.REGEX, false);
+		}
+		if (isIdentifierStart(c)) {
+			this.pos++;
+			while (this.pos < this.length
+					&& isIdentifierPart(this.source.charAt(this.pos))) {
+				this.pos++;
+			}
+			this.end = this.pos;
+			this.type = TokenType.IDENTIFIER;
+			this.regexAllowed = isKeyword(KEYWORDS_BEFORE_EXPRESSION);
+			this.statementHeadKeyword = isKeyword(KEYWORDS_BEFORE_STATEMENT_HEAD);
+			this.previousPunctuator = 0;
+			this.ambiguousSlash = false;
+			return this.type;
+		}
+		if (c >= '0' && c <= '9' || c == '.' && n >= '0' && n <= '9') {
+			this.pos++;
+			while (this.pos < this.length
+					&& (Character.isLetterOrDigit(this.source.charAt(this.pos)) || this.source
+							.charAt(this.pos) == '.')) {
+				this.pos++;
+			}
+			return significant(TokenType.NUMBER, false);
+		}
+
+		this.pos++;
+		boolean regexAllowedAfter = c != ')' && c != ']' && c != '}';
+		if (c == '(') {
+			this.statementHeads.set(this.parenDepth, this.statementHeadKeyword);
+			this.parenDepth++;
+		}
+		else if (c == ')' && this.parenDepth > 0) {
+			this.parenDepth--;
+			regexAllowedAfter = this.statementHeads.get(this.parenDepth);
+		}
+		boolean ambiguous = c == '/'
+				&& (this.previousPunctuator == ')' || this.previousPunctuator == '}');
+		significant(TokenType.PUNCTUATOR, regexAllowedAfter);
+		this.previousPunctuator = c;
+		this.ambiguousSlash = ambiguous;
+		return this.type;
+	}
+
+	private TokenType token(TokenType tokenType) {
+		this.end = this.pos;
+		this.type = tokenType;
+		return tokenType;
+	}
+
+	private TokenType significant(TokenType tokenType, boolean regexAllowedAfter) {
+		this.regexAllowed = regexAllowedAfter;
+		this.statementHeadKeyword = false;
+		this.previousPunctuator = 0;
+		this.ambiguousSlash = false;
+		return token(tokenType);
+	}
+
+	private void skipWhitespace() {
+		while (this.pos < this.length) {
+			char c = this.source.charAt(this.pos);
+			if (c == ' ' || c == '\n' || c == '\t' || c == '\r' || c > 127
+					&& Character.isWhitespace(c)) {
+				this.pos++;
+			}
+			else {
+				return;
+			}
+		}
+	}
+
+	private void skipLineComment() {
+		this.pos += 2;
+		while (this.pos < this.length && !isLineTerminator(this.source.charAt(this.pos))) {
+			this.pos++;
+		}
+	}
+
+	private void skipBlockComment() {
+		this.pos += 2;
+		while (this.pos < this.length) {
+			if (this.source.charAt(this.pos) == '*' && this.pos + 1 < this.length
+					&& this.source.charAt(this.pos + 1) == '/') {
+				this.pos += 2;
+				return;
+			}
+			this.pos++;
+		}
+	}
+
+	private void skipString(char quote) {
+		this.pos++;
+		while (this.pos < this.length) {
+			char c = this.source.charAt(this.pos);
+			if (c == '\\') {
+				this.pos += 2;
+				if (this.pos < this.length && this.source.charAt(this.pos - 1) == '\r'
+						&& this.source.charAt(this.pos) == '\n') {
+					this.pos++;
+				}
+			}
+			else if (c == quote) {
+				this.pos++;
+				return;
+			}
+			else if (isLineTerminator(c)) {
+				// unterminated literal, resume at the next line
+				return;
+			}
+			else {
+				this.pos++;
+			}
+		}
+		this.pos = Math.min(this.pos, this.length);
+	}
+
+	private void skipTemplate() {
+		this.pos++;
+		while (this.pos < this.length) {
+			char c = this.source.charAt(this.pos);
+			if (c == '\\') {
+				this.pos += 2;
+			}
+			else if (c == '`') {
+				this.pos++;
+				return;
+			}
+			else if (c == '$' && this.pos + 1 < this.length
+					&& this.source.charAt(this.pos + 1) == '{') {
+				this.pos += 2;
+				skipSubstitution();
+			}
+			else {
+				this.pos++;
+			}
+		}
+		this.pos = Math.min(this.pos, this.length);
+	}
+
+	/**
+	 * Skips the expression of a <code>${}</code> substitution including the closing
+	 * brace. Strings, nested templates and comments in the expression may contain
+	 * braces and backticks.
+	 */
+	private void skipSubstitution() {
+		int depth = 0;
+		while (this.pos < this.length) {
+			char c = this.source.charAt(this.pos);
+			char n = this.pos + 1 < this.length ? this.source.charAt(this.pos + 1) : 0;
+			if (c == '\'' || c == '"') {
+				skipString(c);
+			}
+			else if (c == '`') {
+				skipTemplate();
+			}
+			else if (c == '/' && n == '/') {
+				skipLineComment();
+			}
+			else if (c == '/' && n == '*') {
+				skipBlockComment();
+			}
+			else {
+				this.pos++;
+				if (c == '{') {
+					depth++;
+				}
+				else if (c == '}' && depth-- == 0) {
+					return;
+				}
+			}
+		}
+	}
+
+	private void skipRegex() {
+		this.pos++;
+		boolean inClass = false;
+		while (this.pos < this.length) {
+			char c = this.source.charAt(this.pos);
+			if (c == '\\') {
+				this.pos += 2;
+				continue;
+			}
+			if (isLineTerminator(c)) {
+				// not a regular expression after all, resume at the next line
+				return;
+			}
+			this.pos++;
+			if (c == '[') {
+				inClass = true;
+			}
+			else if (c == ']') {
+				inClass = false;
+			}
+			else if (c == '/' && !inClass) {
+				break;
+			}
+		}
+		while (this.pos < this.length && isIdentifierPart(this.source.charAt(this.pos))) {
+			this.pos++;
+		}
+		this.pos = Math.min(this.pos, this.length);
+	}
+
+	private boolean isKeyword(String[] keywords) {
+		switch (this.source.charAt(this.start)) {
+		case 'a':
+		case 'c':
+		case 'd':
+		case 'e':
+		case 'f':
+		case 'i':
+		case 'n':
+		case 'o':
+		case 'r':
+		case 't':
+		case 'v':
+		case 'w':
+		case 'y':
+			for (String keyword : keywords) {
+				if (isIdentifier(keyword)) {
+					return true;
+				}
+			}
+			return false;
+		default:
+			return false;
+		}
+	}
+
+	private boolean regionMatches(int offset, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if (this.source.charAt(offset + i) != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isIdentifierStart(char c) {
+		if (c < 128) {
+			return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '$' || c == '_';
+		}
+		return Character.isJavaIdentifierStart(c);
+	}
+
+	private static boolean isIdentifierPart(char c) {
+		if (c < 128) {
+			return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+					|| c == '$' || c == '_';
+		}
+		return Character.isJavaIdentifierPart(c);
+	}
+
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029';
+	}
+
+}
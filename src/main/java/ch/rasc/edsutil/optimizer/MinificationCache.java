@@ -0,0 +1,236 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk cache for minified sources. Entries are addressed by a hash of the source
+ * and the compressor settings, are written atomically and can be shared by several
+ * JVMs that point to the same directory.
+ */
+public class MinificationCache {
+
+	private final static Logger log = LoggerFactory.getLogger("ch.rasc.edsutil");
+
+	private static final String LOCK_FILE = ".lock";
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static final long STALE_TEMP_FILE_MILLIS = 60L * 60L * 1000L;
+
+	private final Path directory;
+
+	private final long maxSize;
+
+	public MinificationCache(Path directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	public Path getDirectory() {
+		return this.directory;
+	}
+
+	public long getMaxSize() {
+		return this.maxSize;
+	}
+
+	public String get(String key) {
+		Path file = entryPath(key);
+		try {
+			byte[] content = Files.readAllBytes(file);
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			return new String(content, StandardCharsets.UTF_8);
+		}
+		catch (NoSuchFileException e) {
+			return null;
+		}
+		catch (IOException e) {
+			log.warn("minification cache read: " + file, e);
+			return null;
+		}
+	}
+
+	public void put(String key, String value) {
+		Path file = entryPath(key);
+		Path tempFile = null;
+		try {
+			Files.createDirectories(file.getParent());
+			tempFile = Files.createTempFile(file.getParent(), key, TEMP_SUFFIX);
+			Files.write(tempFile, value.getBytes(StandardCharsets.UTF_8));
+			try {
+				Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		catch (IOException e) {
+			log.warn("minification cache write: " + file, e);
+			if (tempFile != null) {
+				try {
+					Files.deleteIfExists(tempFile);
+				}
+				catch (IOException ioe) {
+					// ignore it
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes the least recently used entries until the cache no longer exceeds the
+	 * maximum size. Skipped when another process, or another cache instance in this
+	 * JVM, is already evicting.
+	 */
+	public void evict() {
+		if (!Files.isDirectory(this.directory)) {
+			return;
+		}
+
+		try (FileChannel channel = FileChannel.open(
+				this.directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE);
+				FileLock lock = channel.tryLock()) {
+			if (lock != null) {
+				evictEntries();
+			}
+		}
+		catch (OverlappingFileLockException e) {
+			// another instance in this JVM holds the lock and is evicting
+		}
+		catch (IOException e) {
+			log.warn("minification cache eviction: " + this.directory, e);
+		}
+	}
+
+	private void evictEntries() throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		long totalSize = 0;
+
+		try (Stream<Path> files = Files.walk(this.directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				String fileName = file.getFileName().toString();
+				if (fileName.equals(LOCK_FILE)) {
+					continue;
+				}
+				BasicFileAttributes attributes;
+				try {
+					attributes = Files.readAttributes(file, BasicFileAttributes.class);
+				}
+				catch (NoSuchFileException e) {
+					continue;
+				}
+				if (!attributes.isRegularFile()) {
+					continue;
+				}
+
+				long lastModified = attributes.lastModifiedTime().toMillis();
+				if (fileName.endsWith(TEMP_SUFFIX)) {
+					if (now - lastModified > STALE_TEMP_FILE_MILLIS) {
+						Files.deleteIfExists(file);
+					}
+					continue;
+				}
+
+				entries.add(new Entry(file, attributes.size(), lastModified));
+				totalSize += attributes.size();
+			}
+		}
+
+		if (totalSize <= this.maxSize) {
+			return;
+		}
+
+		entries.sort(Comparator.comparingLong(e -> e.lastModified));
+		for (Entry entry : entries) {
+			if (totalSize <= this.maxSize) {
+				break;
+			}
+			try {
+				Files.deleteIfExists(entry.file);
+				totalSize -= entry.size;
+			}
+			catch (IOException e) {
+				log.warn("minification cache delete: " + entry.file, e);
+			}
+		}
+	}
+
+	private Path entryPath(String key) {
+		return this.directory.resolve(key.substring(0, 2)).resolve(key);
+	}
+
+	public static String computeKey(String... parts) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (String part : parts) {
+				digest.update(part.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+			}
+
+			byte[] hash = digest.digest();
+			StringBuilder sb = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				sb.append(Character.forDigit(b >> 4 & 0xf, 16));
+				sb.append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private final static class Entry {
+		final Path file;
+
+		final long size;
+
+		final long lastModified;
+
+		Entry(Path file, long size, long lastModified) {
+			this.file = file;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+	}
+
+}
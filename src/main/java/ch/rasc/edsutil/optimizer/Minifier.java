@@ -0,0 +1,50 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.io.IOException;
+
+/**
+ * Minifies the content of one JavaScript or CSS file. The engine is selected per
+ * resource with the {@code minifier} attribute of the configuration, see
+ * {@link WebResourceProcessor#registerMinifier(String, Minifier)}.
+ */
+public interface Minifier {
+
+	/**
+	 * Removes comments and collapses whitespace in one pass. Much faster than YUI but
+	 * does not rename or rewrite anything. Comments starting with {@code /*!} are
+	 * kept.
+	 */
+	Minifier STRIP = new Minifiers.StrippingMinifier();
+
+	/**
+	 * Returns the content unchanged. Used for files that end with {@code .min.js} or
+	 * {@code .min.css}.
+	 */
+	Minifier NONE = new Minifiers.PassthroughMinifier();
+
+	/**
+	 * Identifies the minifier and every setting that changes its output. Part of the
+	 * keys of the {@link MinificationCache}.
+	 */
+	String getId();
+
+	String minifyJs(String source) throws IOException;
+
+	String minifyCss(String source) throws IOException;
+
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+final class Minifiers {
+
+	private Minifiers() {
+		// utility class
+	}
+
+	final static class PassthroughMinifier implements Minifier {
+
+		@Override
+		public String getId() {
+			return "none";
+		}
+
+		@Override
+		public String minifyJs(String source) {
+			return source;
+		}
+
+		@Override
+		public String minifyCss(String source) {
+			return source;
+		}
+	}
+
+	final static class StrippingMinifier implements Minifier {
+
+		private static final String NO_LINE_BREAK_AFTER = "{([,;";
+
+		private static final String NO_LINE_BREAK_BEFORE = ")]},;";
+
+		private static final String NO_CSS_SPACE_AFTER = "{};,>(:\n";
+
+		private static final String NO_CSS_SPACE_BEFORE = "{};,>)";
+
+		@Override
+		public String getId() {
+			return "strip:2";
+		}
+
+		/**
+		 * Copies every token unchanged and only rewrites the gaps between them. A
+		 * gap that contains a line break stays a line break, unless the neighbouring
+		 * punctuators make it irrelevant for automatic semicolon insertion. Other gaps
+		 * are dropped unless the tokens would merge. After a slash that may start a
+		 * regular expression the rest of the line is copied unchanged.
+		 */
+		@Override
+		public String minifyJs(String source) {
+			StringBuilder out = new StringBuilder(source.length());
+			JsTokenizer tokenizer = new JsTokenizer(source);
+			JsTokenizer.TokenType lastType = null;
+			char last = 0;
+			int previousEnd = 0;
+			boolean separated = false;
+			boolean lineBreak = false;
+			boolean verbatim = false;
+
+			JsTokenizer.TokenType type;
+			while ((type = tokenizer.next()) != JsTokenizer.TokenType.EOF) {
+				int start = tokenizer.getStart();
+				int end = tokenizer.getEnd();
+				if (verbatim && !containsLineTerminator(source, previousEnd, start)) {
+					out.append(source, previousEnd, end);
+					last = source.charAt(end - 1);
+					lastType = type;
+					previousEnd = end;
+					continue;
+				}
+				verbatim = false;
+
+				if (start > previousEnd) {
+					separated = true;
+					lineBreak |= containsLineTerminator(source, previousEnd, start);
+				}
+				previousEnd = end;
+
+				if (type == JsTokenizer.TokenType.COMMENT) {
+					if (end - start > 2 && source.charAt(start + 1) == '*'
+							&& source.charAt(start + 2) == '!') {
+						if (out.length() > 0 && last != '\n') {
+							out.append('\n');
+						}
+						out.append(source, start, end).append('\n');
+						last = '\n';
+						lastType = null;
+						separated = false;
+						lineBreak = false;
+					}
+					else {
+						separated = true;
+						lineBreak |= containsLineTerminator(source, start, end);
+					}
+					continue;
+				}
+
+				char first = source.charAt(start);
+				if (out.length() > 0) {
+					if (lineBreak) {
+						if (NO_LINE_BREAK_AFTER.indexOf(last) == -1
+								&& NO_LINE_BREAK_BEFORE.indexOf(first) == -1) {
+							out.append('\n');
+						}
+					}
+					else if (separated && needsSpace(lastType, last, first)) {
+						out.append(' ');
+					}
+				}
+
+				out.append(source, start, end);
+				last = source.charAt(end - 1);
+				lastType = type;
+				separated = false;
+				lineBreak = false;
+				verbatim = tokenizer.isAmbiguousSlash();
+			}
+
+			return out.toString();
+		}
+
+		private static boolean needsSpace(JsTokenizer.TokenType lastType, char last,
+				char first) {
+			if (isNamePart(last) && isNamePart(first)) {
+				return true;
+			}
+			if ((last == '+' || last == '-') && first == last) {
+				return true;
+			}
+			if (last == '/' && (first == '/' || first == '*')) {
+				return true;
+			}
+			return lastType == JsTokenizer.TokenType.NUMBER && first == '.';
+		}
+
+		private static boolean isNamePart(char c) {
+			if (c < 128) {
+				return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0'
+						&& c <= '9' || c == '$' || c == '_' || c == '\\';
+			}
+			return Character.isJavaIdentifierPart(c);
+		}
+
+		private static boolean containsLineTerminator(String source, int from, int to) {
+			for (int i = from; i < to; i++) {
+				char c = source.charAt(i);
+				if (c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029') {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Drops comments and the whitespace around braces, semicolons, commas, child
+		 * combinators and after colons, collapses all other whitespace to one space
+		 * and removes the last semicolon of every block. Strings are copied unchanged.
+		 */
+		@Override
+		public String minifyCss(String source) {
+			StringBuilder out = new StringBuilder(source.length());
+			int length = source.length();
+			boolean space = false;
+			boolean comment = false;
+			int i = 0;
+
+			while (i < length) {
+				char c = source.charAt(i);
+
+				if (c == '/' && i + 1 < length && source.charAt(i + 1) == '*') {
+					int end = source.indexOf("*/", i + 2);
+					end = end == -1 ? length : end + 2;
+					if (i + 2 < length && source.charAt(i + 2) == '!') {
+						appendSeparator(out, space, c);
+						out.append(source, i, end).append('\n');
+						space = false;
+					}
+					else {
+						comment = true;
+					}
+					i = end;
+					continue;
+				}
+
+				if (Character.isWhitespace(c)) {
+					space = true;
+					i++;
+					continue;
+				}
+
+				if (comment && !space && out.length() > 0
+						&& isNamePart(out.charAt(out.length() - 1)) && isNamePart(c)) {
+					// the comment separated two names
+					space = true;
+				}
+				appendSeparator(out, space, c);
+				space = false;
+				comment = false;
+
+				if (c == '"' || c == '\'') {
+					int end = i + 1;
+					while (end < length && source.charAt(end) != c) {
+						if (source.charAt(end) == '\\') {
+							end++;
+						}
+						end++;
+					}
+					end = Math.min(end + 1, length);
+					out.append(source, i, end);
+					i = end;
+					continue;
+				}
+
+				if (c == '}' && out.length() > 0 && out.charAt(out.length() - 1) == ';') {
+					out.setLength(out.length() - 1);
+				}
+				out.append(c);
+				i++;
+			}
+
+			return out.toString();
+		}
+
+		private static void appendSeparator(StringBuilder out, boolean space, char next) {
+			if (space && out.length() > 0
+					&& NO_CSS_SPACE_AFTER.indexOf(out.charAt(out.length() - 1)) == -1
+					&& NO_CSS_SPACE_BEFORE.indexOf(next) == -1) {
+				out.append(' ');
+			}
+		}
+	}
+
+}
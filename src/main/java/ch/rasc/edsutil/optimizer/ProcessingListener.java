@@ -0,0 +1,37 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+/**
+ * Receives the telemetry of {@link WebResourceProcessor} runs. Register instances
+ * with {@link WebResourceProcessor#addProcessingListener(ProcessingListener)}.
+ */
+public interface ProcessingListener {
+
+	/**
+	 * Called after a file was read and minified. Can be called concurrently from the
+	 * minification threads.
+	 */
+	default void fileProcessed(ProcessingReport.FileStatistics file) {
+		// nothing to do
+	}
+
+	/**
+	 * Called at the end of every run, including the rebuilds of the watch mode.
+	 */
+	void processingCompleted(ProcessingReport report);
+
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings and sizes of one {@link WebResourceProcessor} run. Phase times are the
+ * sum over all threads, with parallel minification they can exceed the wall clock
+ * time of the run.
+ */
+public class ProcessingReport {
+
+	public static final String PHASE_MANIFEST = "manifest";
+
+	public static final String PHASE_YAML = "yaml";
+
+	public static final String PHASE_ENUMERATION = "enumeration";
+
+	public static final String PHASE_REORDER = "reorder";
+
+	public static final String PHASE_READ = "read";
+
+	public static final String PHASE_CSS_URL_REWRITE = "cssUrlRewrite";
+
+	public static final String PHASE_MINIFY = "minify";
+
+	/**
+	 * Bundle assembly, the UTF-8 encoding and the hash are computed in one pass.
+	 */
+	public static final String PHASE_HASHING = "hashing";
+
+	public static final String PHASE_COMPRESSION = "compression";
+
+	public static final String PHASE_REGISTRATION = "registration";
+
+	private final long totalNanos;
+
+	private final Map<String, Long> phaseNanos;
+
+	private final Map<String, VariableStatistics> variables;
+
+	private final List<FileStatistics> slowestFiles;
+
+	public ProcessingReport(long totalNanos, Map<String, Long> phaseNanos,
+			Map<String, VariableStatistics> variables, List<FileStatistics> slowestFiles) {
+		this.totalNanos = totalNanos;
+		this.phaseNanos = Collections.unmodifiableMap(phaseNanos);
+		this.variables = Collections.unmodifiableMap(variables);
+		this.slowestFiles = Collections.unmodifiableList(slowestFiles);
+	}
+
+	public long getTotalNanos() {
+		return this.totalNanos;
+	}
+
+	public Map<String, Long> getPhaseNanos() {
+		return this.phaseNanos;
+	}
+
+	public Map<String, VariableStatistics> getVariables() {
+		return this.variables;
+	}
+
+	/**
+	 * Returns the files that took the longest to read and minify, slowest first.
+	 */
+	public List<FileStatistics> getSlowestFiles() {
+		return this.slowestFiles;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("web resource processing took ").append(millis(this.totalNanos))
+				.append(" ms");
+		for (Map.Entry<String, Long> entry : this.phaseNanos.entrySet()) {
+			sb.append("\n  ").append(entry.getKey()).append(": ")
+					.append(millis(entry.getValue())).append(" ms");
+		}
+		for (Map.Entry<String, VariableStatistics> entry : this.variables.entrySet()) {
+			sb.append("\n  ").append(entry.getKey()).append(": ")
+					.append(entry.getValue());
+		}
+		for (FileStatistics file : this.slowestFiles) {
+			sb.append("\n  ").append(file);
+		}
+		return sb.toString();
+	}
+
+	static long millis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	public static class VariableStatistics {
+
+		private final int files;
+
+		private final long bytesIn;
+
+		private final long bytesOut;
+
+		public VariableStatistics(int files, long bytesIn, long bytesOut) {
+			this.files = files;
+			this.bytesIn = bytesIn;
+			this.bytesOut = bytesOut;
+		}
+
+		public int getFiles() {
+			return this.files;
+		}
+
+		public long getBytesIn() {
+			return this.bytesIn;
+		}
+
+		public long getBytesOut() {
+			return this.bytesOut;
+		}
+
+		@Override
+		public String toString() {
+			return this.files + " files, " + this.bytesIn + " bytes in, " + this.bytesOut
+					+ " bytes out";
+		}
+	}
+
+	public static class FileStatistics {
+
+		private final String path;
+
+		private final long nanos;
+
+		private final long bytesIn;
+
+		private final long bytesOut;
+
+		public FileStatistics(String path, long nanos, long bytesIn, long bytesOut) {
+			this.path = path;
+			this.nanos = nanos;
+			this.bytesIn = bytesIn;
+			this.bytesOut = bytesOut;
+		}
+
+		public String getPath() {
+			return this.path;
+		}
+
+		public long getNanos() {
+			return this.nanos;
+		}
+
+		public long getBytesIn() {
+			return this.bytesIn;
+		}
+
+		public long getBytesOut() {
+			return this.bytesOut;
+		}
+
+		@Override
+		public String toString() {
+			return this.path + ": " + millis(this.nanos) + " ms, " + this.bytesIn
+					+ " -> " + this.bytesOut + " bytes";
+		}
+	}
+
+}
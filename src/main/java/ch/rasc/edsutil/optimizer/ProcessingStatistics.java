@@ -0,0 +1,99 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.util.StringUtils;
+
+/**
+ * Collects the timings of one run. Thread safe, the minification threads record
+ * into the same instance.
+ */
+final class ProcessingStatistics {
+
+	private static final int SLOWEST_FILES = 10;
+
+	private final long start = System.nanoTime();
+
+	private final Map<String, LongAdder> phases = new ConcurrentHashMap<>();
+
+	private final Map<String, ProcessingReport.VariableStatistics> variables = new LinkedHashMap<>();
+
+	private final Queue<ProcessingReport.FileStatistics> files = new ConcurrentLinkedQueue<>();
+
+	void addPhase(String phase, long startNanos) {
+		this.phases.computeIfAbsent(phase, k -> new LongAdder()).add(
+				System.nanoTime() - startNanos);
+	}
+
+	synchronized void addVariable(String variable, int fileCount, long bytesIn,
+			long bytesOut) {
+		this.variables.put(variable, new ProcessingReport.VariableStatistics(fileCount,
+				bytesIn, bytesOut));
+	}
+
+	void addFile(ProcessingReport.FileStatistics file) {
+		this.files.add(file);
+	}
+
+	synchronized ProcessingReport createReport() {
+		Map<String, Long> phaseNanos = new LinkedHashMap<>();
+		for (String phase : new String[] { ProcessingReport.PHASE_MANIFEST,
+				ProcessingReport.PHASE_YAML, ProcessingReport.PHASE_ENUMERATION,
+				ProcessingReport.PHASE_REORDER, ProcessingReport.PHASE_READ,
+				ProcessingReport.PHASE_CSS_URL_REWRITE, ProcessingReport.PHASE_MINIFY,
+				ProcessingReport.PHASE_HASHING, ProcessingReport.PHASE_COMPRESSION,
+				ProcessingReport.PHASE_REGISTRATION }) {
+			LongAdder nanos = this.phases.get(phase);
+			if (nanos != null) {
+				phaseNanos.put(phase, nanos.sum());
+			}
+		}
+
+		List<ProcessingReport.FileStatistics> slowest = new ArrayList<>(
+				aggregateFiles().values());
+		slowest.sort((a, b) -> Long.compare(b.getNanos(), a.getNanos()));
+		if (slowest.size() > SLOWEST_FILES) {
+			slowest = new ArrayList<>(slowest.subList(0, SLOWEST_FILES));
+		}
+
+		return new ProcessingReport(System.nanoTime() - this.start, phaseNanos,
+				new LinkedHashMap<>(this.variables), slowest);
+	}
+
+	/**
+	 * Sums the times of a file that was processed more than once in this run, e.g.
+	 * for several variables, so that it is listed only once.
+	 */
+	private Map<String, ProcessingReport.FileStatistics> aggregateFiles() {
+		Map<String, ProcessingReport.FileStatistics> aggregated = new LinkedHashMap<>();
+		for (ProcessingReport.FileStatistics file : this.files) {
+			aggregated.merge(StringUtils.cleanPath(file.getPath()), file,
+					(a, b) -> new ProcessingReport.FileStatistics(a.getPath(), a.getNanos()
+							+ b.getNanos(), a.getBytesIn(), a.getBytesOut()));
+		}
+		return aggregated;
+	}
+
+}
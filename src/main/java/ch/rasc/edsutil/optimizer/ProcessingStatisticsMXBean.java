@@ -0,0 +1,41 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Management interface of {@link JmxProcessingListener}. All times are in
+ * milliseconds and refer to the last run.
+ */
+public interface ProcessingStatisticsMXBean {
+
+	long getRunCount();
+
+	long getTotalMillis();
+
+	Map<String, Long> getPhaseMillis();
+
+	Map<String, Long> getBytesIn();
+
+	Map<String, Long> getBytesOut();
+
+	List<String> getSlowestFiles();
+
+	String getReport();
+
+}
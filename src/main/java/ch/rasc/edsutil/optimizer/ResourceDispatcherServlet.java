@@ -0,0 +1,88 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves all bundles from one servlet. The bundles are looked up by their servlet
+ * path in an immutable map that is replaced as a whole by {@link #publish(Map)},
+ * requests never see a partially updated set of bundles.
+ */
+public class ResourceDispatcherServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private volatile Map<String, ResourceServlet> resources = Collections.emptyMap();
+
+	private volatile Runnable destroyCallback;
+
+	/**
+	 * Replaces all served bundles. The keys are the servlet paths of the bundles.
+	 */
+	public void publish(Map<String, ResourceServlet> servletPathToResource) {
+		this.resources = Collections.unmodifiableMap(new HashMap<>(
+				servletPathToResource));
+	}
+
+	public Map<String, ResourceServlet> getResources() {
+		return this.resources;
+	}
+
+	/**
+	 * Sets the callback that {@link #destroy()} runs, e.g. to delete the files of the
+	 * served bundles.
+	 */
+	void setDestroyCallback(Runnable destroyCallback) {
+		this.destroyCallback = destroyCallback;
+	}
+
+	@Override
+	public void destroy() {
+		Runnable callback = this.destroyCallback;
+		if (callback != null) {
+			callback.run();
+		}
+		super.destroy();
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+
+		String path = request.getServletPath();
+		if (request.getPathInfo() != null) {
+			path = path + request.getPathInfo();
+		}
+
+		ResourceServlet resource = this.resources.get(path);
+		if (resource != null) {
+			resource.handleCacheableResponse(request, response);
+		}
+		else {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+		}
+	}
+
+}
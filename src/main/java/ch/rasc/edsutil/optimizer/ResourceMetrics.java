@@ -0,0 +1,200 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counters and a write time histogram of one bundle. All counters are
+ * {@link LongAdder}s, recording never blocks the request threads.
+ */
+public class ResourceMetrics {
+
+	/**
+	 * Upper bounds of the write time buckets in microseconds. The last bucket
+	 * collects everything above the last bound.
+	 */
+	private static final long[] WRITE_TIME_BOUNDS_MICROS = { 50, 100, 250, 500, 1000,
+			2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000, 5000000 };
+
+	private final LongAdder requests = new LongAdder();
+
+	private final LongAdder notModified = new LongAdder();
+
+	private final LongAdder bytesServed = new LongAdder();
+
+	private final ConcurrentMap<String, LongAdder> encodings = new ConcurrentHashMap<>();
+
+	private final LongAdder[] writeTimes = new LongAdder[WRITE_TIME_BOUNDS_MICROS.length + 1];
+
+	public ResourceMetrics() {
+		for (int i = 0; i < this.writeTimes.length; i++) {
+			this.writeTimes[i] = new LongAdder();
+		}
+	}
+
+	void recordRequest() {
+		this.requests.increment();
+	}
+
+	void recordNotModified() {
+		this.notModified.increment();
+	}
+
+	void recordResponse(String encoding, int bytes) {
+		this.encodings.computeIfAbsent(encoding, k -> new LongAdder()).increment();
+		this.bytesServed.add(bytes);
+	}
+
+	void recordWriteTime(long nanos) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		int bucket = 0;
+		while (bucket < WRITE_TIME_BOUNDS_MICROS.length
+				&& micros > WRITE_TIME_BOUNDS_MICROS[bucket]) {
+			bucket++;
+		}
+		this.writeTimes[bucket].increment();
+	}
+
+	public Snapshot snapshot() {
+		Map<String, Long> encodingCounts = new TreeMap<>();
+		for (Map.Entry<String, LongAdder> entry : this.encodings.entrySet()) {
+			encodingCounts.put(entry.getKey(), entry.getValue().sum());
+		}
+
+		long[] writeTimeCounts = new long[this.writeTimes.length];
+		for (int i = 0; i < writeTimeCounts.length; i++) {
+			writeTimeCounts[i] = this.writeTimes[i].sum();
+		}
+
+		return new Snapshot(this.requests.sum(), this.notModified.sum(),
+				this.bytesServed.sum(), encodingCounts, writeTimeCounts);
+	}
+
+	/**
+	 * Point in time copy of the counters. The counters are read one after the other,
+	 * the values of a snapshot taken under load can be slightly inconsistent.
+	 */
+	public static class Snapshot {
+
+		private final long requests;
+
+		private final long notModified;
+
+		private final long bytesServed;
+
+		private final Map<String, Long> encodings;
+
+		private final long[] writeTimeCounts;
+
+		Snapshot(long requests, long notModified, long bytesServed,
+				Map<String, Long> encodings, long[] writeTimeCounts) {
+			this.requests = requests;
+			this.notModified = notModified;
+			this.bytesServed = bytesServed;
+			this.encodings = Collections.unmodifiableMap(encodings);
+			this.writeTimeCounts = writeTimeCounts;
+		}
+
+		public long getRequests() {
+			return this.requests;
+		}
+
+		/**
+		 * Returns the number of requests answered with 304 because the
+		 * If-None-Match header matched.
+		 */
+		public long getNotModified() {
+			return this.notModified;
+		}
+
+		public double getCacheHitRatio() {
+			return this.requests == 0 ? 0 : (double) this.notModified / this.requests;
+		}
+
+		public long getBytesServed() {
+			return this.bytesServed;
+		}
+
+		/**
+		 * Returns the number of responses per content encoding, "identity" for
+		 * uncompressed responses.
+		 */
+		public Map<String, Long> getEncodings() {
+			return this.encodings;
+		}
+
+		/**
+		 * Returns the upper bound in microseconds of the bucket that contains the
+		 * given percentile (0-100) of the write times, -1 when nothing was written.
+		 */
+		public long getWriteTimePercentileMicros(double percentile) {
+			long total = 0;
+			for (long count : this.writeTimeCounts) {
+				total += count;
+			}
+			if (total == 0) {
+				return -1;
+			}
+
+			long threshold = (long) Math.ceil(total * percentile / 100.0);
+			long seen = 0;
+			for (int i = 0; i < this.writeTimeCounts.length; i++) {
+				seen += this.writeTimeCounts[i];
+				if (seen >= threshold && seen > 0) {
+					return i < WRITE_TIME_BOUNDS_MICROS.length ? WRITE_TIME_BOUNDS_MICROS[i]
+							: Long.MAX_VALUE;
+				}
+			}
+			return Long.MAX_VALUE;
+		}
+
+		/**
+		 * Returns {@link #getWriteTimePercentileMicros(double)} as a label, "+Inf"
+		 * for the open last bucket and null when nothing was written yet.
+		 */
+		public String getWriteTimePercentileLabel(double percentile) {
+			long micros = getWriteTimePercentileMicros(percentile);
+			if (micros == -1) {
+				return null;
+			}
+			return micros == Long.MAX_VALUE ? "+Inf" : String.valueOf(micros);
+		}
+
+		@Override
+		public String toString() {
+			return "requests=" + this.requests + ", notModified=" + this.notModified
+					+ ", bytesServed=" + this.bytesServed + ", encodings="
+					+ this.encodings + ", writeTimeP50=" + formatWriteTime(50)
+					+ ", writeTimeP99=" + formatWriteTime(99);
+		}
+
+		private String formatWriteTime(double percentile) {
+			String label = getWriteTimePercentileLabel(percentile);
+			if (label == null) {
+				return "-";
+			}
+			return label.equals("+Inf") ? label : label + "us";
+		}
+	}
+
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link ResourceMetricsRegistry}. Every attribute is keyed
+ * by bundle file name without the content hash.
+ */
+public interface ResourceMetricsMXBean {
+
+	Map<String, Long> getRequests();
+
+	Map<String, Long> getNotModified();
+
+	Map<String, Double> getCacheHitRatio();
+
+	Map<String, Long> getBytesServed();
+
+	/**
+	 * Responses per bundle and encoding, keyed by "bundle encoding".
+	 */
+	Map<String, Long> getEncodings();
+
+	/**
+	 * Upper bound of the histogram bucket with the median write time, "+Inf" for
+	 * the open last bucket. Bundles that were not written yet are left out.
+	 */
+	Map<String, String> getWriteTimeP50Micros();
+
+	Map<String, String> getWriteTimeP99Micros();
+
+}
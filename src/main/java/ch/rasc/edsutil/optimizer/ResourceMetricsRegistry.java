@@ -0,0 +1,183 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the {@link ResourceMetrics} of every bundle. Pass an instance to
+ * {@link WebResourceProcessor#setResourceMetrics(ResourceMetricsRegistry)} to
+ * enable the metrics, publish them with {@link #register(String)} on the platform
+ * MBean server and/or with a {@link ResourceMetricsReporter}.
+ */
+public class ResourceMetricsRegistry implements ResourceMetricsMXBean {
+
+	private final static Logger log = LoggerFactory.getLogger("ch.rasc.edsutil");
+
+	private final ConcurrentMap<String, ResourceMetrics> metrics = new ConcurrentHashMap<>();
+
+	private ObjectName objectName;
+
+	private ScheduledExecutorService reportingExecutor;
+
+	/**
+	 * Returns the metrics of a bundle. The processor passes the file name without
+	 * the content hash, so a rebuilt bundle keeps its metrics and the registry does
+	 * not grow with every rebuild.
+	 */
+	public ResourceMetrics getMetrics(String bundle) {
+		return this.metrics.computeIfAbsent(bundle, k -> new ResourceMetrics());
+	}
+
+	public Map<String, ResourceMetrics.Snapshot> snapshot() {
+		Map<String, ResourceMetrics.Snapshot> snapshots = new TreeMap<>();
+		for (Map.Entry<String, ResourceMetrics> entry : this.metrics.entrySet()) {
+			snapshots.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		return snapshots;
+	}
+
+	public synchronized void register(String name) throws JMException {
+		unregister();
+		ObjectName on = new ObjectName(name);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(on)) {
+			server.unregisterMBean(on);
+		}
+		server.registerMBean(this, on);
+		this.objectName = on;
+	}
+
+	public synchronized void unregister() throws JMException {
+		if (this.objectName != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(this.objectName)) {
+				server.unregisterMBean(this.objectName);
+			}
+			this.objectName = null;
+		}
+	}
+
+	/**
+	 * Calls the reporter with a snapshot of all metrics in a fixed interval from a
+	 * daemon thread. A previously started reporter is stopped.
+	 */
+	public synchronized void startReporting(ResourceMetricsReporter reporter,
+			long period, TimeUnit unit) {
+		stopReporting();
+		this.reportingExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "resource-metrics-reporter");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.reportingExecutor.scheduleAtFixedRate(() -> {
+			try {
+				reporter.report(snapshot());
+			}
+			catch (RuntimeException e) {
+				log.error("resource metrics reporter failed", e);
+			}
+		}, period, period, unit);
+	}
+
+	public synchronized void stopReporting() {
+		if (this.reportingExecutor != null) {
+			this.reportingExecutor.shutdownNow();
+			this.reportingExecutor = null;
+		}
+	}
+
+	@Override
+	public Map<String, Long> getRequests() {
+		return collect(ResourceMetrics.Snapshot::getRequests);
+	}
+
+	@Override
+	public Map<String, Long> getNotModified() {
+		return collect(ResourceMetrics.Snapshot::getNotModified);
+	}
+
+	@Override
+	public Map<String, Double> getCacheHitRatio() {
+		Map<String, Double> result = new TreeMap<>();
+		for (Map.Entry<String, ResourceMetrics.Snapshot> entry : snapshot().entrySet()) {
+			result.put(entry.getKey(), entry.getValue().getCacheHitRatio());
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getBytesServed() {
+		return collect(ResourceMetrics.Snapshot::getBytesServed);
+	}
+
+	@Override
+	public Map<String, Long> getEncodings() {
+		Map<String, Long> result = new TreeMap<>();
+		for (Map.Entry<String, ResourceMetrics.Snapshot> entry : snapshot().entrySet()) {
+			for (Map.Entry<String, Long> encoding : entry.getValue().getEncodings()
+					.entrySet()) {
+				result.put(entry.getKey() + " " + encoding.getKey(), encoding.getValue());
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, String> getWriteTimeP50Micros() {
+		return collectWriteTimes(50);
+	}
+
+	@Override
+	public Map<String, String> getWriteTimeP99Micros() {
+		return collectWriteTimes(99);
+	}
+
+	private Map<String, String> collectWriteTimes(double percentile) {
+		Map<String, String> result = new TreeMap<>();
+		for (Map.Entry<String, ResourceMetrics.Snapshot> entry : snapshot().entrySet()) {
+			String label = entry.getValue().getWriteTimePercentileLabel(percentile);
+			if (label != null) {
+				result.put(entry.getKey(), label);
+			}
+		}
+		return result;
+	}
+
+	private Map<String, Long> collect(ToLongFunction<ResourceMetrics.Snapshot> value) {
+		Map<String, Long> result = new TreeMap<>();
+		for (Map.Entry<String, ResourceMetrics.Snapshot> entry : snapshot().entrySet()) {
+			result.put(entry.getKey(), value.applyAsLong(entry.getValue()));
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.util.Map;
+
+/**
+ * Receives the request metrics of all bundles in a fixed interval. See
+ * {@link ResourceMetricsRegistry#startReporting(ResourceMetricsReporter, long, java.util.concurrent.TimeUnit)}
+ */
+@FunctionalInterface
+public interface ResourceMetricsReporter {
+
+	/**
+	 * @param snapshots the metrics keyed by bundle file name without the content
+	 * hash. The counters are cumulative since startup.
+	 */
+	void report(Map<String, ResourceMetrics.Snapshot> snapshots);
+
+}
@@ -16,9 +16,16 @@
 package ch.rasc.edsutil.optimizer;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -27,19 +34,62 @@ public class ResourceServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 1L;
 
-	private final byte[] data;
+	private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
 
-	private final String contentType;
+	private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+
+	private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
 
-	private final String etag;
+	private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+	/**
+	 * Jetty's HttpOutput.sendContent(ByteBuffer), looked up once per output stream
+	 * class.
+	 */
+	private static final ClassValue<Method> SEND_CONTENT = new ClassValue<Method>() {
+		@Override
+		protected Method computeValue(Class<?> type) {
+			try {
+				return type.getMethod("sendContent", ByteBuffer.class);
+			}
+			catch (NoSuchMethodException e) {
+				return null;
+			}
+		}
+	};
+
+	private final String contentType;
 
 	private final Integer cacheInSeconds;
 
+	private volatile Content content;
+
+	private boolean asyncWrites = false;
+
+	private int asyncChunkSize = 32 * 1024;
+
+	private long asyncTimeout = 10 * 60 * 1000L;
+
+	private ResourceMetrics metrics = null;
+
+	private boolean immutable = false;
+
 	public ResourceServlet(final byte[] data, final String etag,
 			final Integer cacheInSeconds, final String contentType) {
-		this.data = data;
+		this(data, null, null, etag, cacheInSeconds, contentType);
+	}
+
+	public ResourceServlet(final byte[] data, final byte[] gzipData,
+			final byte[] deflateData, final String etag, final Integer cacheInSeconds,
+			final String contentType) {
+		this(BundleContent.heap(data), heap(gzipData), heap(deflateData), etag,
+				cacheInSeconds, contentType);
+	}
+
+	public ResourceServlet(final BundleContent data, final BundleContent gzipData,
+			final BundleContent deflateData, final String etag,
+			final Integer cacheInSeconds, final String contentType) {
 		this.contentType = contentType;
-		this.etag = "\"" + etag + "\"";
 
 		if (cacheInSeconds != null) {
 			this.cacheInSeconds = cacheInSeconds;
@@ -48,6 +98,63 @@ public class ResourceServlet extends HttpServlet {
 			// set it to one year
 			this.cacheInSeconds = 31536000;
 		}
+
+		this.content = new Content(data, gzipData, deflateData, etag);
+	}
+
+	/**
+	 * Replaces the served data. Requests that are already running finish with the
+	 * previous data.
+	 */
+	public void update(final byte[] data, final byte[] gzipData,
+			final byte[] deflateData, final String etag) {
+		update(BundleContent.heap(data), heap(gzipData), heap(deflateData), etag);
+	}
+
+	/**
+	 * Replaces the served data. Requests that are already running finish with the
+	 * previous data.
+	 */
+	public void update(final BundleContent data, final BundleContent gzipData,
+			final BundleContent deflateData, final String etag) {
+		this.content = new Content(data, gzipData, deflateData, etag);
+	}
+
+	private static BundleContent heap(byte[] data) {
+		return data != null ? BundleContent.heap(data) : null;
+	}
+
+	/**
+	 * Writes responses that are larger than one chunk with a non-blocking
+	 * {@link WriteListener} when the request supports async processing. The
+	 * container thread is released while a slow client receives the data.
+	 */
+	public void setAsyncWrites(boolean asyncWrites) {
+		this.asyncWrites = asyncWrites;
+	}
+
+	public void setAsyncChunkSize(int asyncChunkSize) {
+		this.asyncChunkSize = asyncChunkSize;
+	}
+
+	public void setAsyncTimeout(long asyncTimeout) {
+		this.asyncTimeout = asyncTimeout;
+	}
+
+	/**
+	 * Adds the immutable directive to the Cache-Control header. Only for content
+	 * whose URL changes when the content changes.
+	 */
+	public void setImmutable(boolean immutable) {
+		this.immutable = immutable;
+	}
+
+	/**
+	 * Records requests, 304 responses, bytes, encodings and write times into the
+	 * given metrics. No metrics are recorded by default.
+	 */
+	public void setMetrics(ResourceMetrics metrics) {
+		this.metrics = metrics;
 	}
 
 	@Override
@@ -58,24 +165,264 @@ public class ResourceServlet extends HttpServlet {
 
 	public void handleCacheableResponse(HttpServletRequest request,
 			HttpServletResponse response) throws IOException {
+
+		ResourceMetrics requestMetrics = this.metrics;
+		if (requestMetrics != null) {
+			requestMetrics.recordRequest();
+		}
+
+		Content current = this.content;
+		BundleContent responseData = current.data;
+		String responseEtag = current.etag;
+		String contentEncoding = null;
+
+		if (!current.encodedData.isEmpty()) {
+			response.setHeader("Vary", "Accept-Encoding");
+
+			String acceptEncoding = request.getHeader("Accept-Encoding");
+			for (EncodedData ed : current.encodedData) {
+				if (isEncodingAccepted(acceptEncoding, ed.encoding)) {
+					responseData = ed.data;
+					responseEtag = ed.etag;
+					contentEncoding = ed.encoding;
+					break;
+				}
+			}
+		}
+
 		String ifNoneMatch = request.getHeader("If-None-Match");
 
-		if (this.etag.equals(ifNoneMatch)) {
+		if (etagMatches(ifNoneMatch, responseEtag)) {
+			response.setHeader("ETag", responseEtag);
 			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			if (requestMetrics != null) {
+				requestMetrics.recordNotModified();
+			}
 			return;
 		}
 
 		response.setContentType(this.contentType);
-		response.setContentLength(this.data.length);
+		int length = responseData.length();
+		response.setContentLength(length);
+		if (contentEncoding != null) {
+			response.setHeader("Content-Encoding", contentEncoding);
+		}
 
 		response.setDateHeader("Expires", System.currentTimeMillis()
 				+ this.cacheInSeconds * 1000L);
-		response.setHeader("ETag", this.etag);
-		response.setHeader("Cache-Control", "public, max-age=" + this.cacheInSeconds);
+		response.setHeader("ETag", responseEtag);
+		response.setHeader("Cache-Control", "public, max-age=" + this.cacheInSeconds
+				+ (this.immutable ? ", immutable" : ""));
+
+		// HEAD only gets the headers. The body-less response of HttpServlet.doHead
+		// never calls a write listener, an async write would wait for the timeout.
+		if ("HEAD".equals(request.getMethod())) {
+			return;
+		}
+
+		if (requestMetrics != null) {
+			requestMetrics.recordResponse(contentEncoding != null ? contentEncoding
+					: "identity", length);
+		}
+
+		if (responseData.getFile() != null
+				&& Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+			// Tomcat sends the file after the servlet returns
+			request.setAttribute(SENDFILE_FILENAME, responseData.getFile()
+					.toAbsolutePath().toString());
+			request.setAttribute(SENDFILE_START, Long.valueOf(0));
+			request.setAttribute(SENDFILE_END, Long.valueOf(length));
+			// not timed, the write happens after the servlet returned
+			return;
+		}
+
+		long writeStart = System.nanoTime();
 
 		@SuppressWarnings("resource")
 		ServletOutputStream out = response.getOutputStream();
-		out.write(this.data);
+
+		if (this.asyncWrites && length > this.asyncChunkSize
+				&& request.isAsyncSupported()) {
+			AsyncContext asyncContext = request.startAsync();
+			asyncContext.setTimeout(this.asyncTimeout);
+			out.setWriteListener(new ChunkedWriteListener(asyncContext, out,
+					responseData, this.asyncChunkSize, requestMetrics, writeStart));
+			return;
+		}
+
+		if (!sendContent(out, responseData)) {
+			responseData.write(out, 0, length, null);
+		}
 		out.flush();
+		if (requestMetrics != null) {
+			requestMetrics.recordWriteTime(System.nanoTime() - writeStart);
+		}
+	}
+
+	/**
+	 * Hands a buffer to Jetty, which writes it to the channel without copying it
+	 * into the heap. Returns false for heap content and other containers.
+	 */
+	private static boolean sendContent(ServletOutputStream out, BundleContent data)
+			throws IOException {
+		ByteBuffer buffer = data.getBuffer();
+		if (buffer == null) {
+			return false;
+		}
+		Method sendContent = SEND_CONTENT.get(out.getClass());
+		if (sendContent == null) {
+			return false;
+		}
+		try {
+			sendContent.invoke(out, buffer);
+			return true;
+		}
+		catch (InvocationTargetException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+		catch (IllegalAccessException e) {
+			return false;
+		}
+	}
+
+	private static boolean etagMatches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+
+		for (String candidate : ifNoneMatch.split(",")) {
+			String tag = candidate.trim();
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals(etag) || tag.equals("*")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isEncodingAccepted(String acceptEncoding, String encoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+
+		boolean wildcardAccepted = false;
+		for (String part : acceptEncoding.split(",")) {
+			String[] params = part.split(";");
+			String coding = params[0].trim();
+
+			boolean accepted = true;
+			for (int i = 1; i < params.length; i++) {
+				String param = params[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						accepted = Double.parseDouble(param.substring(2)) > 0;
+					}
+					catch (NumberFormatException e) {
+						accepted = false;
+					}
+				}
+			}
+
+			if (coding.equalsIgnoreCase(encoding)) {
+				return accepted;
+			}
+			if (coding.equals("*")) {
+				wildcardAccepted = accepted;
+			}
+		}
+
+		return wildcardAccepted;
+	}
+
+	private final static class ChunkedWriteListener implements WriteListener {
+		private final AsyncContext asyncContext;
+
+		private final ServletOutputStream out;
+
+		private final BundleContent data;
+
+		private final byte[] chunk;
+
+		private final ResourceMetrics metrics;
+
+		private final long writeStart;
+
+		private int offset = 0;
+
+		ChunkedWriteListener(AsyncContext asyncContext, ServletOutputStream out,
+				BundleContent data, int chunkSize, ResourceMetrics metrics,
+				long writeStart) {
+			this.asyncContext = asyncContext;
+			this.out = out;
+			this.data = data;
+			this.chunk = new byte[chunkSize];
+			this.metrics = metrics;
+			this.writeStart = writeStart;
+		}
+
+		@Override
+		public void onWritePossible() throws IOException {
+			while (this.out.isReady()) {
+				if (this.offset >= this.data.length()) {
+					this.asyncContext.complete();
+					if (this.metrics != null) {
+						this.metrics.recordWriteTime(System.nanoTime() - this.writeStart);
+					}
+					return;
+				}
+				int len = Math.min(this.chunk.length, this.data.length() - this.offset);
+				this.data.write(this.out, this.offset, len, this.chunk);
+				this.offset += len;
+			}
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			this.asyncContext.complete();
+		}
+	}
+
+	private final static class Content {
+		private final BundleContent data;
+
+		private final String etag;
+
+		private final List<EncodedData> encodedData;
+
+		Content(BundleContent data, BundleContent gzipData, BundleContent deflateData,
+				String etag) {
+			this.data = data;
+			this.etag = "\"" + etag + "\"";
+
+			// smallest variant first, only variants that are smaller than the raw data
+			this.encodedData = new ArrayList<>();
+			if (gzipData != null && gzipData.length() < data.length()) {
+				this.encodedData.add(new EncodedData("gzip", gzipData, etag));
+			}
+			if (deflateData != null && deflateData.length() < data.length()) {
+				this.encodedData.add(new EncodedData("deflate", deflateData, etag));
+			}
+			this.encodedData.sort((a, b) -> Integer.compare(a.data.length(),
+					b.data.length()));
+		}
+	}
+
+	private final static class EncodedData {
+		private final String encoding;
+
+		private final BundleContent data;
+
+		private final String etag;
+
+		EncodedData(String encoding, BundleContent data, String etag) {
+			this.encoding = encoding;
+			this.data = data;
+			this.etag = "\"" + etag + "-" + encoding + "\"";
+		}
 	}
 }
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * Key of a set of sources for the {@link BundleStore}, a SHA-256 hash of the parts
+ * separated by a zero byte.
+ */
+final class SourceSetKey {
+
+	private static final byte[] SEPARATOR = { 0 };
+
+	private final BundleHash.Hasher hasher = BundleHash.SHA_256.newHasher();
+
+	void update(String... parts) {
+		for (String part : parts) {
+			byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+			this.hasher.update(bytes, 0, bytes.length);
+			this.hasher.update(SEPARATOR, 0, 1);
+		}
+	}
+
+	/**
+	 * Adds the content of every asset that {@link CssRewriter} may inline or
+	 * fingerprint, so that a changed image or font changes the key.
+	 */
+	void updateAssets(Resource css, String cssSourceCode, WebResourceSources sources)
+			throws IOException {
+		for (String assetUrl : CssRewriter.getAssetUrls(cssSourceCode)) {
+			String path = CssRewriter.getAssetPath(assetUrl);
+			if (!path.isEmpty()) {
+				Resource asset = css.createRelative(path);
+				update(assetUrl, asset.exists() ? sources.getContentHash(asset) : "");
+			}
+		}
+	}
+
+	String hash() {
+		return this.hasher.hash();
+	}
+
+}
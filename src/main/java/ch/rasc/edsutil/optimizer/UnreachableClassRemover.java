@@ -0,0 +1,181 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+/**
+ * Leaves the Ext JS classes that no entry class reaches out of a bundle.
+ */
+final class UnreachableClassRemover {
+
+	private final static Logger log = LoggerFactory.getLogger("ch.rasc.edsutil");
+
+	private final Set<Resource> ignoredResources;
+
+	private final Map<String, List<String>> removedResources;
+
+	UnreachableClassRemover(Set<Resource> ignoredResources,
+			Map<String, List<String>> removedResources) {
+		this.ignoredResources = ignoredResources;
+		this.removedResources = removedResources;
+	}
+
+	/**
+	 * Removes the classes that are not reachable from the entries. A class is
+	 * reached through extend, requires, uses, mixins, controller, model and override,
+	 * through its alias or xtype, through the short names of the MVC lists and
+	 * through every string literal equal to its name. Names that are built at runtime,
+	 * e.g. <code>Ext.create('App.view.' + name)</code>, are not detected, such classes
+	 * have to be listed as entries or in requires.
+	 */
+	List<WebResource> remove(String varName, List<WebResource> webResources,
+			List<String> entries, WebResourceSources sources) throws IOException {
+
+		Map<WebResource, ExtClassScanner.ExtClass> extClasses = new HashMap<>();
+		Map<String, WebResource> classToResource = new HashMap<>();
+		Map<String, WebResource> aliasToResource = new HashMap<>();
+		Set<WebResource> reachable = new HashSet<>();
+		Deque<WebResource> queue = new ArrayDeque<>();
+		for (WebResource webResource : webResources) {
+			if (webResource.isMinify()
+					&& !this.ignoredResources.contains(webResource.getResource())) {
+				ExtClassScanner.ExtClass extClass = sources.getExtClass(webResource
+						.getResource());
+				extClasses.put(webResource, extClass);
+				if (extClass.getClassName() != null) {
+					classToResource.putIfAbsent(extClass.getClassName(), webResource);
+				}
+				else if (reachable.add(webResource)) {
+					// kept anyway, e.g. the Ext.application call
+					queue.add(webResource);
+				}
+				for (String alias : extClass.getAliases()) {
+					aliasToResource.putIfAbsent(alias, webResource);
+					// widget.grid is referenced as xtype 'grid', proxy.ajax as type
+					// 'ajax'
+					int dotIx = alias.indexOf('.');
+					if (dotIx != -1) {
+						aliasToResource.putIfAbsent(alias.substring(dotIx + 1), webResource);
+					}
+				}
+			}
+		}
+
+		for (String entry : entries) {
+			WebResource entryResource = classToResource.get(entry);
+			if (entryResource == null) {
+				for (WebResource webResource : extClasses.keySet()) {
+					if (webResource.getPath().endsWith(entry)) {
+						entryResource = webResource;
+						break;
+					}
+				}
+			}
+
+			if (entryResource == null) {
+				log.warn("entry '" + entry + "' of variable '" + varName + "' not found");
+			}
+			else if (reachable.add(entryResource)) {
+				queue.add(entryResource);
+			}
+		}
+
+		boolean changed = true;
+		while (changed) {
+			while (!queue.isEmpty()) {
+				WebResource webResource = queue.poll();
+				ExtClassScanner.ExtClass extClass = extClasses.get(webResource);
+				for (String reference : extClass.getReferences()) {
+					WebResource referenced = classToResource.get(reference);
+					if (referenced == null) {
+						referenced = aliasToResource.get(reference);
+					}
+					if (referenced != null && reachable.add(referenced)) {
+						queue.add(referenced);
+					}
+				}
+				// names used at runtime, e.g. Ext.create('App.view.Main'), xtype:
+				// 'grid' or controllers: [ 'Main' ]. A string that only happens to
+				// match a name keeps a class that is not needed, never the other way.
+				for (String name : extClass.getNameReferences()) {
+					WebResource referenced = classToResource.get(name);
+					if (referenced == null) {
+						referenced = aliasToResource.get(name);
+					}
+					if (referenced != null && reachable.add(referenced)) {
+						queue.add(referenced);
+					}
+				}
+			}
+
+			// an override is needed when the overridden class is part of the bundle
+			// or is provided by another script
+			changed = false;
+			for (Map.Entry<WebResource, ExtClassScanner.ExtClass> entry : extClasses
+					.entrySet()) {
+				String override = entry.getValue().getOverride();
+				if (override != null && !reachable.contains(entry.getKey())) {
+					WebResource overridden = classToResource.get(override);
+					if (overridden == null || reachable.contains(overridden)) {
+						reachable.add(entry.getKey());
+						queue.add(entry.getKey());
+						changed = true;
+					}
+				}
+			}
+		}
+
+		List<WebResource> result = new ArrayList<>();
+		List<String> removed = new ArrayList<>();
+		for (WebResource webResource : webResources) {
+			ExtClassScanner.ExtClass extClass = extClasses.get(webResource);
+			if (extClass == null || extClass.getClassName() == null
+					|| reachable.contains(webResource)) {
+				result.add(webResource);
+			}
+			else {
+				removed.add(webResource.getPath());
+			}
+		}
+
+		if (!removed.isEmpty()) {
+			this.removedResources.merge(varName, removed, (a, b) -> {
+				List<String> merged = new ArrayList<>(a);
+				merged.addAll(b);
+				return merged;
+			});
+			log.info("removed {} of {} files from variable '{}' that are not reachable "
+					+ "from the entries {}: {}", removed.size(), webResources.size(),
+					varName, entries, removed);
+		}
+
+		return result;
+	}
+
+}
@@ -27,11 +27,27 @@ public class WebResource {
 
 	private final String path;
 
+	private final String chunk;
+
+	private final String minifier;
+
 	public WebResource(String varName, String path, Resource resource, boolean minify) {
+		this(varName, path, resource, minify, null);
+	}
+
+	public WebResource(String varName, String path, Resource resource, boolean minify,
+			String chunk) {
+		this(varName, path, resource, minify, chunk, null);
+	}
+
+	public WebResource(String varName, String path, Resource resource, boolean minify,
+			String chunk, String minifier) {
 		this.varName = varName;
 		this.resource = resource;
 		this.minify = minify;
 		this.path = path;
+		this.chunk = chunk;
+		this.minifier = minifier;
 	}
 
 	public String getVarName() {
@@ -50,6 +66,17 @@ public class WebResource {
 		return this.minify;
 	}
 
+	public String getChunk() {
+		return this.chunk;
+	}
+
+	/**
+	 * Returns the name of the minifier, null for the default minifier.
+	 */
+	public String getMinifier() {
+		return this.minifier;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * Processes the web resources at build time and writes the bundles, a
+ * {@link WebResourceManifest} and a {@link WebResourceIndex} into a directory. Run
+ * it with the classpath of the web application.
+ *
+ * <pre>
+ * WebResourceBuilder &lt;webappDirectory&gt; &lt;outputDirectory&gt; [--contextPath=/ctx]
+ *     [--resourceServletPath=/wr] [--config=/webresources.yml] [--threads=4]
+ *     [--precompress=true] [--bundleHash=SHA_256] [--inlineImageMaxSize=4096]
+ *     [--fingerprintCssAssets=true] [--inlineCssImports=true]
+ * </pre>
+ *
+ * At runtime the output directory has to be on the classpath and
+ * {@link WebResourceProcessor#setManifestLocation(String)} must point to the
+ * manifest file.
+ */
+public class WebResourceBuilder {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: WebResourceBuilder <webappDirectory> <outputDirectory>"
+					+ " [--contextPath=/ctx] [--resourceServletPath=/wr]"
+					+ " [--config=/webresources.yml] [--threads=4] [--precompress=true]"
+					+ " [--bundleHash=SHA_256] [--inlineImageMaxSize=4096]"
+					+ " [--fingerprintCssAssets=true] [--inlineCssImports=true]");
+			System.exit(1);
+			return;
+		}
+
+		Path webappDirectory = Paths.get(args[0]).toAbsolutePath();
+		Path outputDirectory = Paths.get(args[1]).toAbsolutePath();
+
+		String contextPath = "";
+		String resourceServletPath = null;
+		String config = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean precompress = false;
+		BundleHash bundleHash = BundleHash.MD5;
+		int inlineImageMaxSize = 0;
+		boolean fingerprintCssAssets = false;
+		boolean inlineCssImports = false;
+
+		for (int i = 2; i < args.length; i++) {
+			String arg = args[i];
+			int eq = arg.indexOf('=');
+			if (!arg.startsWith("--") || eq == -1) {
+				throw new IllegalArgumentException("unknown argument: " + arg);
+			}
+			String name = arg.substring(2, eq);
+			String value = arg.substring(eq + 1);
+			switch (name) {
+			case "contextPath":
+				contextPath = value;
+				break;
+			case "resourceServletPath":
+				resourceServletPath = value;
+				break;
+			case "config":
+				config = value;
+				break;
+			case "threads":
+				threads = Integer.parseInt(value);
+				break;
+			case "precompress":
+				precompress = Boolean.parseBoolean(value);
+				break;
+			case "bundleHash":
+				bundleHash = parseBundleHash(value);
+				break;
+			case "inlineImageMaxSize":
+				inlineImageMaxSize = Integer.parseInt(value);
+				break;
+			case "fingerprintCssAssets":
+				fingerprintCssAssets = Boolean.parseBoolean(value);
+				break;
+			case "inlineCssImports":
+				inlineCssImports = Boolean.parseBoolean(value);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown argument: " + arg);
+			}
+		}
+
+		WebResourceProcessor processor = new WebResourceProcessor(
+				new WebappResourceLoader(webappDirectory), contextPath, true);
+		processor.setResourceServletPath(resourceServletPath);
+		processor.setMinifyThreads(threads);
+		processor.setPrecompressBundles(precompress);
+		processor.setBundleHash(bundleHash);
+		processor.setInlineImageMaxSize(inlineImageMaxSize);
+		processor.setFingerprintCssAssets(fingerprintCssAssets);
+		processor.setInlineCssImports(inlineCssImports);
+		if (config != null) {
+			processor.setWebResourcesConfigName(config);
+		}
+
+		WebResourceManifest manifest = processor.createManifest();
+		manifest.write(outputDirectory);
+		processor.createResourceIndex().write(outputDirectory);
+
+		System.out.println("wrote " + manifest.getBundles().size()
+				+ " bundles and the resource index to " + outputDirectory);
+	}
+
+	private static BundleHash parseBundleHash(String name) {
+		switch (name) {
+		case "MD5":
+			return BundleHash.MD5;
+		case "SHA_256":
+			return BundleHash.SHA_256;
+		case "CRC32":
+			return BundleHash.CRC32;
+		default:
+			throw new IllegalArgumentException("unknown bundle hash: " + name);
+		}
+	}
+
+	private final static class WebappResourceLoader extends DefaultResourceLoader {
+
+		private final Path webappDirectory;
+
+		WebappResourceLoader(Path webappDirectory) {
+			this.webappDirectory = webappDirectory;
+		}
+
+		@Override
+		protected Resource getResourceByPath(String path) {
+			String relativePath = path.startsWith("/") ? path.substring(1) : path;
+			return new FileSystemResource(this.webappDirectory.resolve(relativePath)
+					.toFile());
+		}
+	}
+
+}
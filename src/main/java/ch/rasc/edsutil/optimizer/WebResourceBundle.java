@@ -0,0 +1,78 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+public class WebResourceBundle {
+
+	private final String fileName;
+
+	private final String servletPath;
+
+	private final String contentType;
+
+	private final String etag;
+
+	private final byte[] content;
+
+	private final byte[] gzipContent;
+
+	private final byte[] deflateContent;
+
+	public WebResourceBundle(String fileName, String servletPath, String contentType,
+			String etag, byte[] content) {
+		this(fileName, servletPath, contentType, etag, content, null, null);
+	}
+
+	public WebResourceBundle(String fileName, String servletPath, String contentType,
+			String etag, byte[] content, byte[] gzipContent, byte[] deflateContent) {
+		this.fileName = fileName;
+		this.servletPath = servletPath;
+		this.contentType = contentType;
+		this.etag = etag;
+		this.content = content;
+		this.gzipContent = gzipContent;
+		this.deflateContent = deflateContent;
+	}
+
+	public String getFileName() {
+		return this.fileName;
+	}
+
+	public String getServletPath() {
+		return this.servletPath;
+	}
+
+	public String getContentType() {
+		return this.contentType;
+	}
+
+	public String getEtag() {
+		return this.etag;
+	}
+
+	public byte[] getContent() {
+		return this.content;
+	}
+
+	public byte[] getGzipContent() {
+		return this.gzipContent;
+	}
+
+	public byte[] getDeflateContent() {
+		return this.deflateContent;
+	}
+
+}
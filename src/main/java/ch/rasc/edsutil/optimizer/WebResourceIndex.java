@@ -0,0 +1,164 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * Files of the web resource configuration with their size and content hash,
+ * written at build time by {@link WebResourceBuilder}, so that the processor does
+ * not have to scan the directories.
+ */
+public class WebResourceIndex {
+
+	public static final String INDEX_FILE_NAME = "webresources-index.properties";
+
+	private static final String LOCATION_PREFIX = "location.";
+
+	private static final String COUNT_SUFFIX = ".count";
+
+	private final Map<String, List<Entry>> locations = new LinkedHashMap<>();
+
+	/**
+	 * Returns the files of the location pattern in the order of the scan, or null
+	 * when the location is not part of the index.
+	 */
+	public List<Entry> getEntries(String location) {
+		List<Entry> entries = this.locations.get(location);
+		return entries != null ? Collections.unmodifiableList(entries) : null;
+	}
+
+	public Map<String, List<Entry>> getLocations() {
+		return Collections.unmodifiableMap(this.locations);
+	}
+
+	void addLocation(String location) {
+		this.locations.put(location, new ArrayList<>());
+	}
+
+	void addEntry(String location, String path, int size, String hash) {
+		this.locations.get(location).add(new Entry(path, size, hash));
+	}
+
+	public void write(Path directory) throws IOException {
+		Files.createDirectories(directory);
+
+		// one key per value, paths may contain commas and colons
+		Properties properties = new Properties();
+		for (Map.Entry<String, List<Entry>> location : this.locations.entrySet()) {
+			String prefix = LOCATION_PREFIX + location.getKey();
+			List<Entry> entries = location.getValue();
+			properties.setProperty(prefix + COUNT_SUFFIX, String.valueOf(entries.size()));
+			for (int i = 0; i < entries.size(); i++) {
+				Entry entry = entries.get(i);
+				properties.setProperty(prefix + "." + i + ".path", entry.getPath());
+				properties.setProperty(prefix + "." + i + ".size",
+						String.valueOf(entry.getSize()));
+				properties.setProperty(prefix + "." + i + ".hash", entry.getHash());
+			}
+		}
+
+		try (OutputStream os = Files.newOutputStream(directory.resolve(INDEX_FILE_NAME))) {
+			properties.store(os, "generated by " + WebResourceProcessor.class.getName());
+		}
+	}
+
+	public static WebResourceIndex read(Resource index) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream is = index.getInputStream()) {
+			properties.load(is);
+		}
+
+		WebResourceIndex webResourceIndex = new WebResourceIndex();
+		for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+			if (!key.startsWith(LOCATION_PREFIX) || !key.endsWith(COUNT_SUFFIX)) {
+				continue;
+			}
+			String prefix = key.substring(0, key.length() - COUNT_SUFFIX.length());
+			String location = prefix.substring(LOCATION_PREFIX.length());
+			webResourceIndex.addLocation(location);
+			int count = Integer.parseInt(properties.getProperty(key).trim());
+			for (int i = 0; i < count; i++) {
+				String path = properties.getProperty(prefix + "." + i + ".path");
+				String size = properties.getProperty(prefix + "." + i + ".size");
+				String hash = properties.getProperty(prefix + "." + i + ".hash");
+				if (path == null || size == null || hash == null) {
+					throw new IOException("index '" + index.getDescription()
+							+ "' misses entry " + i + " of '" + location + "'");
+				}
+				webResourceIndex.addEntry(location, path, Integer.parseInt(size.trim()),
+						hash);
+			}
+		}
+		return webResourceIndex;
+	}
+
+	/**
+	 * Hash of the UTF-8 encoded content, the same for the index and the check at
+	 * startup.
+	 */
+	static String hash(String text) {
+		BundleHash.Hasher hasher = BundleHash.MD5.newHasher();
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		hasher.update(bytes, 0, bytes.length);
+		return hasher.hash();
+	}
+
+	public static class Entry {
+
+		private final String path;
+
+		private final int size;
+
+		private final String hash;
+
+		Entry(String path, int size, String hash) {
+			this.path = path;
+			this.size = size;
+			this.hash = hash;
+		}
+
+		/**
+		 * Returns the webapp path or the classpath location of the file.
+		 */
+		public String getPath() {
+			return this.path;
+		}
+
+		public int getSize() {
+			return this.size;
+		}
+
+		public String getHash() {
+			return this.hash;
+		}
+	}
+
+}
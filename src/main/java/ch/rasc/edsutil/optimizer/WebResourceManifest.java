@@ -0,0 +1,216 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.springframework.core.io.Resource;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * Result of a {@link WebResourceProcessor} run: the links and scripts of every
+ * variable together with the generated bundles. Can be written to a directory at
+ * build time and read back at startup instead of processing the web resources
+ * again.
+ */
+public class WebResourceManifest {
+
+	public static final String MANIFEST_FILE_NAME = "webresources-manifest.properties";
+
+	private static final String CONTEXT_PATH_KEY = "contextPath";
+
+	private static final String VARIABLE_PREFIX = "variable.";
+
+	private static final String COUNT_SUFFIX = ".count";
+
+	private static final String INDEX_SUFFIX = ".index";
+
+	private static final String BUNDLE_PREFIX = "bundle.";
+
+	private static final String GZIP_SUFFIX = ".gz";
+
+	private static final String DEFLATE_SUFFIX = ".deflate";
+
+	private final String contextPath;
+
+	private final Map<String, List<String>> variables;
+
+	private final List<WebResourceBundle> bundles;
+
+	public WebResourceManifest(String contextPath, Map<String, List<String>> variables,
+			List<WebResourceBundle> bundles) {
+		this.contextPath = contextPath;
+		this.variables = variables;
+		this.bundles = bundles;
+	}
+
+	public String getContextPath() {
+		return this.contextPath;
+	}
+
+	public Map<String, List<String>> getVariables() {
+		return this.variables;
+	}
+
+	public List<WebResourceBundle> getBundles() {
+		return this.bundles;
+	}
+
+	public void write(Path directory) throws IOException {
+		Files.createDirectories(directory);
+
+		Properties properties = new Properties();
+		properties.setProperty(CONTEXT_PATH_KEY, this.contextPath);
+
+		// one key per url, urls may contain commas. The index keeps the order of the
+		// variables.
+		int index = 0;
+		for (Map.Entry<String, List<String>> entry : this.variables.entrySet()) {
+			String prefix = VARIABLE_PREFIX + entry.getKey();
+			List<String> urls = entry.getValue();
+			properties.setProperty(prefix + INDEX_SUFFIX, String.valueOf(index++));
+			properties.setProperty(prefix + COUNT_SUFFIX, String.valueOf(urls.size()));
+			for (int i = 0; i < urls.size(); i++) {
+				properties.setProperty(prefix + "." + i, urls.get(i));
+			}
+		}
+
+		for (WebResourceBundle bundle : this.bundles) {
+			String prefix = BUNDLE_PREFIX + bundle.getFileName() + ".";
+			properties.setProperty(prefix + "servletPath", bundle.getServletPath());
+			properties.setProperty(prefix + "contentType", bundle.getContentType());
+			properties.setProperty(prefix + "etag", bundle.getEtag());
+
+			// fingerprinted assets keep their directory
+			Path file = directory.resolve(bundle.getFileName());
+			Files.createDirectories(file.getParent());
+			Files.write(file, bundle.getContent());
+
+			List<String> encodings = new ArrayList<>();
+			if (bundle.getGzipContent() != null) {
+				encodings.add("gzip");
+				Files.write(directory.resolve(bundle.getFileName() + GZIP_SUFFIX),
+						bundle.getGzipContent());
+			}
+			if (bundle.getDeflateContent() != null) {
+				encodings.add("deflate");
+				Files.write(directory.resolve(bundle.getFileName() + DEFLATE_SUFFIX),
+						bundle.getDeflateContent());
+			}
+			if (!encodings.isEmpty()) {
+				properties.setProperty(prefix + "encodings",
+						StringUtils.collectionToCommaDelimitedString(encodings));
+			}
+		}
+
+		try (OutputStream os = Files.newOutputStream(directory
+				.resolve(MANIFEST_FILE_NAME))) {
+			properties.store(os, "generated by " + WebResourceProcessor.class.getName());
+		}
+	}
+
+	/**
+	 * Reads a manifest written by {@link #write(Path)}. The bundle files are resolved
+	 * relative to the manifest resource.
+	 */
+	public static WebResourceManifest read(Resource manifest) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream is = manifest.getInputStream()) {
+			properties.load(is);
+		}
+
+		Map<String, List<String>> variables = new TreeMap<>(
+				Comparator.comparingInt((String var) -> getIndex(properties, var))
+						.thenComparing(Comparator.naturalOrder()));
+		List<WebResourceBundle> bundles = new ArrayList<>();
+
+		for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+			String value = properties.getProperty(key);
+			if (key.startsWith(VARIABLE_PREFIX) && key.endsWith(COUNT_SUFFIX)) {
+				String prefix = key.substring(0, key.length() - COUNT_SUFFIX.length());
+				int count = Integer.parseInt(value.trim());
+				List<String> urls = new ArrayList<>(count);
+				for (int i = 0; i < count; i++) {
+					String url = properties.getProperty(prefix + "." + i);
+					if (url == null) {
+						throw new IOException("manifest '" + manifest.getDescription()
+								+ "' misses '" + prefix + "." + i + "'");
+					}
+					urls.add(url);
+				}
+				variables.put(prefix.substring(VARIABLE_PREFIX.length()), urls);
+			}
+			else if (key.startsWith(BUNDLE_PREFIX) && key.endsWith(".servletPath")) {
+				String fileName = key.substring(BUNDLE_PREFIX.length(), key.length()
+						- ".servletPath".length());
+				String prefix = BUNDLE_PREFIX + fileName + ".";
+
+				byte[] content = readContent(manifest, fileName);
+				byte[] gzipContent = null;
+				byte[] deflateContent = null;
+
+				List<String> encodings = Arrays.asList(StringUtils
+						.commaDelimitedListToStringArray(properties.getProperty(prefix
+								+ "encodings", "")));
+				if (encodings.contains("gzip")) {
+					gzipContent = readContent(manifest, fileName + GZIP_SUFFIX);
+				}
+				if (encodings.contains("deflate")) {
+					deflateContent = readContent(manifest, fileName + DEFLATE_SUFFIX);
+				}
+
+				bundles.add(new WebResourceBundle(fileName, value, properties
+						.getProperty(prefix + "contentType"), properties
+						.getProperty(prefix + "etag"), content, gzipContent,
+						deflateContent));
+			}
+		}
+
+		return new WebResourceManifest(properties.getProperty(CONTEXT_PATH_KEY, ""),
+				new LinkedHashMap<>(variables), bundles);
+	}
+
+	/**
+	 * Returns the position of the variable in the configuration, manifests without
+	 * an index sort the variables by name.
+	 */
+	private static int getIndex(Properties properties, String var) {
+		String index = properties.getProperty(VARIABLE_PREFIX + var + INDEX_SUFFIX);
+		return index != null ? Integer.parseInt(index.trim()) : Integer.MAX_VALUE;
+	}
+
+	private static byte[] readContent(Resource manifest, String fileName)
+			throws IOException {
+		try (InputStream is = manifest.createRelative(fileName).getInputStream()) {
+			return FileCopyUtils.copyToByteArray(is);
+		}
+	}
+
+}
@@ -15,22 +15,14 @@
  */
 package ch.rasc.edsutil.optimizer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.nio.CharBuffer;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -40,23 +32,36 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletContext;
+import javax.servlet.ServletRegistration;
 
-import org.mozilla.javascript.ErrorReporter;
-import org.mozilla.javascript.EvaluatorException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.DescriptiveResource;
 import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
 import org.springframework.util.StringUtils;
-import org.springframework.web.context.support.ServletContextResource;
 import org.springframework.web.context.support.ServletContextResourcePatternResolver;
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.constructor.Constructor;
@@ -67,9 +72,6 @@ import ch.rasc.edsutil.optimizer.graph.CircularReferenceException;
 import ch.rasc.edsutil.optimizer.graph.Graph;
 import ch.rasc.edsutil.optimizer.graph.Node;
 
-import com.yahoo.platform.yui.compressor.CssCompressor;
-import com.yahoo.platform.yui.compressor.JavaScriptCompressor;
-
 public class WebResourceProcessor {
 
 	private final static Logger log = LoggerFactory.getLogger("ch.rasc.edsutil");
@@ -78,15 +80,11 @@ public class WebResourceProcessor {
 
 	private static final String JS_EXTENSION = "_js";
 
-	private final static Pattern DEV_CODE_PATTERN = Pattern.compile(
-			"/\\* <debug> \\*/.*?/\\* </debug> \\*/", Pattern.DOTALL);
-
-	private final static Pattern CSS_URL_PATTERN = Pattern.compile(
-			"(.*?url.*?\\(\\s*'?)(.*?)(\\?.*?)??('?\\s*\\))", Pattern.CASE_INSENSITIVE);
+	private static final String YUI_MINIFIER = "yui";
 
-	private final static String REQUIRES_PATTERN = "(?s)\\brequires\\s*?:\\s*?\\[.*?\\]\\s*?,";
+	private static final String CLASSPATH_LOCATION = "classpath:";
 
-	private final static String USES_PATTERN = "(?s)\\buses\\s*?:\\s*?\\[.*?\\]\\s*?,";
+	private static final String WEBAPP_LOCATION = "webapp:";
 
 	private final static String JAVASCRIPT_TAG = "<script src=\"%s\"></script>";
 
@@ -114,17 +112,106 @@ public class WebResourceProcessor {
 
 	private String resourceServletPath = null;
 
+	private String dispatcherServletName = null;
+
+	private int minifyThreads = 1;
+
+	private Executor minifyExecutor = null;
+
+	private MinificationCache minificationCache = null;
+
+	private final Map<String, Minifier> minifiers = new ConcurrentHashMap<>();
+
+	private String defaultMinifier = YUI_MINIFIER;
+
+	private String manifestLocation = null;
+
+	private String resourceIndexLocation = null;
+
+	private volatile WebResourceIndex resourceIndex = null;
+
+	private BundleStore bundleStore = null;
+
+	private final BundleStorageFiles storageFiles = new BundleStorageFiles();
+
+	private boolean precompressBundles = false;
+
+	private boolean asyncWrites = false;
+
+	private boolean watch = false;
+
+	private boolean asyncProcessing = false;
+
+	private Executor processingExecutor = null;
+
+	private volatile CompletableFuture<Void> processingFuture = CompletableFuture
+			.completedFuture(null);
+
+	private BundleHash bundleHash = BundleHash.MD5;
+
+	private ResourceMetricsRegistry resourceMetrics = null;
+
+	private int inlineImageMaxSize = 0;
+
+	private boolean fingerprintCssAssets = false;
+
+	private boolean inlineCssImports = false;
+
+	private WebResourceSources watchSources;
+
+	private volatile WebResourceWatcher watcher;
+
+	private final ResourceDispatcherServlet dispatcher = new ResourceDispatcherServlet();
+
+	private final Set<String> mappedServletPaths = new HashSet<>();
+
 	private final Set<Resource> ignoreJsResourceFromReordering = new HashSet<>();
 
-	private final ErrorReporter errorReporter = new JavaScriptCompressorErrorReporter();
+	private final Map<String, List<String>> removedResources = new ConcurrentHashMap<>();
+
+	private final UnreachableClassRemover unreachableClassRemover = new UnreachableClassRemover(
+			this.ignoreJsResourceFromReordering, this.removedResources);
+
+	private final List<ProcessingListener> processingListeners = new CopyOnWriteArrayList<>();
+
+	private volatile ProcessingStatistics statistics = new ProcessingStatistics();
+
+	private volatile ProcessingReport processingReport = null;
+
+	private volatile WebResourceManifest manifest = null;
+
+	private Set<String> publishedVariables = Collections.emptySet();
 
 	private final ServletContext servletContext;
 
+	private final ResourcePatternResolver webappResourceResolver;
+
+	private final String contextPath;
+
 	private final Map<String, String> versionNumbers;
 
 	public WebResourceProcessor(final ServletContext servletContext,
 			final boolean production) {
 		this.servletContext = servletContext;
+		this.webappResourceResolver = new ServletContextResourcePatternResolver(
+				servletContext);
+		this.contextPath = null;
+		this.production = production;
+		this.versionNumbers = readVersionNumber();
+	}
+
+	/**
+	 * Creates a processor that runs outside of a servlet container, for example at
+	 * build time. Webapp resources are loaded with the given resource loader and CSS
+	 * urls are rewritten for the given context path. {@link #process()} is not
+	 * available with this constructor, use {@link #createManifest()} instead.
+	 */
+	public WebResourceProcessor(final ResourceLoader webappResourceLoader,
+			final String contextPath, final boolean production) {
+		this.servletContext = null;
+		this.webappResourceResolver = new PathMatchingResourcePatternResolver(
+				webappResourceLoader);
+		this.contextPath = contextPath != null ? contextPath : "";
 		this.production = production;
 		this.versionNumbers = readVersionNumber();
 	}
@@ -138,6 +225,16 @@ public class WebResourceProcessor {
 		}
 	}
 
+	/**
+	 * Sets the name under which {@link #process()} registers the servlet that serves
+	 * the bundles. By default the name is derived from the resource servlet path or,
+	 * without one, from the configuration name, so several processors can run in one
+	 * context.
+	 */
+	public void setDispatcherServletName(String dispatcherServletName) {
+		this.dispatcherServletName = dispatcherServletName;
+	}
+
 	public void ignoreJsResourceFromReordering(Resource resource) {
 		this.ignoreJsResourceFromReordering.add(resource);
 	}
@@ -180,33 +277,639 @@ public class WebResourceProcessor {
 		this.jsCompressordisableOptimizations = jsCompressordisableOptimizations;
 	}
 
+	public void setMinifyThreads(int minifyThreads) {
+		this.minifyThreads = minifyThreads;
+	}
+
+	public void setMinifyExecutor(Executor minifyExecutor) {
+		this.minifyExecutor = minifyExecutor;
+	}
+
+	public void setMinificationCache(MinificationCache minificationCache) {
+		this.minificationCache = minificationCache;
+	}
+
+	/**
+	 * Makes a minifier available under the given name for the {@code minifier}
+	 * attribute of the configuration. "yui" (configured with the jsCompressor and
+	 * linebreak settings of this processor), "strip" ({@link Minifier#STRIP}) and
+	 * "none" ({@link Minifier#NONE}) are always available.
+	 */
+	public void registerMinifier(String name, Minifier minifier) {
+		this.minifiers.put(name, minifier);
+	}
+
+	/**
+	 * Name of the minifier for the resources without a {@code minifier} attribute,
+	 * "yui" by default. Files that end with {@code .min.js} or {@code .min.css} are
+	 * never minified again.
+	 */
+	public void setDefaultMinifier(String defaultMinifier) {
+		this.defaultMinifier = defaultMinifier;
+	}
+
+	/**
+	 * Classpath location of a manifest written by {@link WebResourceBuilder}. When
+	 * the manifest exists the prebuilt bundles are served and the web resources are
+	 * not processed at startup.
+	 */
+	public void setManifestLocation(String manifestLocation) {
+		this.manifestLocation = manifestLocation;
+	}
+
+	/**
+	 * Classpath location of an index written by {@link WebResourceBuilder}. The
+	 * files listed in the index are resolved directly instead of scanning the
+	 * {@code concat_minify} directories. A location is scanned when it is not in the
+	 * index, when one of its files is missing or has a different size or content, or
+	 * when its directory contains a file that is not in the index. Directories inside
+	 * a jar are not listed, regenerate the index together with the jar. Ignored in
+	 * watch mode.
+	 */
+	public void setResourceIndexLocation(String resourceIndexLocation) {
+		this.resourceIndexLocation = resourceIndexLocation;
+	}
+
+	/**
+	 * Shares the processed bundles with the other nodes of a cluster. The files are
+	 * still read and hashed at startup, but only the first node that starts with a
+	 * set of sources minifies them, the others load the stored bundles. Ignored in
+	 * watch mode.
+	 */
+	public void setBundleStore(BundleStore bundleStore) {
+		this.bundleStore = bundleStore;
+	}
+
+	/**
+	 * Where the resource servlets keep the bundles, {@link BundleStorage#HEAP} by
+	 * default. With {@link BundleStorage#DIRECT} and {@link BundleStorage#MAPPED}
+	 * the bundles do not occupy the Java heap, they are copied into the response
+	 * through a small buffer unless the container can send them directly.
+	 */
+	public void setBundleStorage(BundleStorage bundleStorage) {
+		this.storageFiles.setStorage(bundleStorage);
+	}
+
+	/**
+	 * Directory for the files of {@link BundleStorage#MAPPED}. A new temporary
+	 * directory by default. The files are written at every publish, deleted at a
+	 * later publish once they have not been served for a minute, and all of them
+	 * when the servlet context is destroyed.
+	 */
+	public void setBundleStorageDirectory(Path bundleStorageDirectory) {
+		this.storageFiles.setDirectory(bundleStorageDirectory);
+	}
+
+	/**
+	 * Stores a gzip and a deflate variant of every bundle next to the raw content.
+	 * {@link ResourceServlet} sends the smallest variant the client accepts.
+	 */
+	public void setPrecompressBundles(boolean precompressBundles) {
+		this.precompressBundles = precompressBundles;
+	}
+
+	/**
+	 * Registers the resource servlets with async support and lets them stream the
+	 * bundles with non-blocking writes.
+	 */
+	public void setAsyncWrites(boolean asyncWrites) {
+		this.asyncWrites = asyncWrites;
+	}
+
+	/**
+	 * Hash function for the bundle file names and ETags, {@link BundleHash#MD5} by
+	 * default.
+	 */
+	public void setBundleHash(BundleHash bundleHash) {
+		this.bundleHash = bundleHash;
+	}
+
+	/**
+	 * Images referenced from CSS files that are not larger than the given number of
+	 * bytes are embedded into the CSS bundle as base64 data URIs. 0 (the default)
+	 * disables inlining. Keep the threshold small, the base64 encoding grows the
+	 * image by a third and old browsers limit the length of data URIs (IE8: 32 KB).
+	 */
+	public void setInlineImageMaxSize(int inlineImageMaxSize) {
+		this.inlineImageMaxSize = inlineImageMaxSize;
+	}
+
+	/**
+	 * Rewrites the urls of images and fonts referenced from CSS bundles to names that
+	 * contain a hash of the content. The assets are served with the bundles and,
+	 * like them, can be cached forever. Not applied in watch mode.
+	 */
+	public void setFingerprintCssAssets(boolean fingerprintCssAssets) {
+		this.fingerprintCssAssets = fingerprintCssAssets;
+	}
+
+	/**
+	 * Inlines the style sheets imported with {@code @import} from CSS bundles.
+	 * Imports are resolved relative to the importing file and inlined recursively,
+	 * every file is included once. Imports with a media query and remote imports are
+	 * kept.
+	 */
+	public void setInlineCssImports(boolean inlineCssImports) {
+		this.inlineCssImports = inlineCssImports;
+	}
+
+	/**
+	 * Collects request metrics of every served bundle in the given registry.
+	 */
+	public void setResourceMetrics(ResourceMetricsRegistry resourceMetrics) {
+		this.resourceMetrics = resourceMetrics;
+	}
+
+	/**
+	 * Watches the processed files after {@link #process()} and rebuilds the bundles
+	 * when one of them changes. Only the changed files are read and minified again.
+	 * The bundles keep a stable name without a hash and are served with
+	 * {@code max-age=0}, browsers revalidate them with the ETag. Intended for
+	 * development with {@code production} set to true, the prebuilt manifest is
+	 * ignored in this mode.
+	 */
+	public void setWatch(boolean watch) {
+		this.watch = watch;
+	}
+
+	/**
+	 * Lets {@link #process()} return before the bundles are built. The dispatcher is
+	 * registered right away and the variables contain the tags of the {@code dev}
+	 * entries of the configuration until the bundles are published. Requires a
+	 * resource servlet path, without it the bundles are processed synchronously.
+	 * A prebuilt manifest is always read synchronously.
+	 */
+	public void setAsyncProcessing(boolean asyncProcessing) {
+		this.asyncProcessing = asyncProcessing;
+	}
+
+	/**
+	 * Executor that builds the bundles in async processing mode. By default a new
+	 * daemon thread is started.
+	 */
+	public void setProcessingExecutor(Executor processingExecutor) {
+		this.processingExecutor = processingExecutor;
+	}
+
+	/**
+	 * Returns a future that completes when the bundles of {@link #process()} are
+	 * published. Completes exceptionally when the background processing failed.
+	 */
+	public CompletableFuture<Void> getProcessingFuture() {
+		return this.processingFuture;
+	}
+
 	public void process() throws IOException {
+		if (this.servletContext == null) {
+			throw new IllegalStateException("process() requires a ServletContext");
+		}
+
+		this.statistics = new ProcessingStatistics();
+
+		WebResourceManifest manifest = null;
+		if (!this.watch) {
+			manifest = readManifest();
+			if (manifest != null && !manifest.getContextPath().equals(getContextPath())) {
+				log.warn("manifest '" + this.manifestLocation
+						+ "' was created for context path '" + manifest.getContextPath()
+						+ "'");
+			}
+		}
+
+		boolean background = false;
+		if (manifest == null && this.asyncProcessing) {
+			if (StringUtils.hasText(this.resourceServletPath)) {
+				background = true;
+			}
+			else {
+				log.warn("async processing requires a resource servlet path, "
+						+ "processing web resources synchronously");
+			}
+		}
+
+		if (manifest == null && !background) {
+			manifest = createManifest(createSources());
+		}
 
-		Map<String, List<WebResource>> varResources = readVariableResources();
-		Map<String, List<String>> linksAndScripts = minify(varResources, true);
+		long registrationStart = System.nanoTime();
+		String servletName = getDispatcherServletName();
+		this.dispatcher.setDestroyCallback(this.storageFiles::deleteAll);
+		ServletRegistration.Dynamic registration = this.servletContext.addServlet(
+				servletName, this.dispatcher);
+		if (registration == null) {
+			throw new IllegalStateException("a servlet with the name '" + servletName
+					+ "' is already registered, set a unique name with "
+					+ "setDispatcherServletName()");
+		}
+		registration.setAsyncSupported(this.asyncWrites);
+		if (StringUtils.hasText(this.resourceServletPath)) {
+			String mapping = this.resourceServletPath;
+			if (!mapping.endsWith("/")) {
+				mapping = mapping + "/";
+			}
+			registration.addMapping(mapping + "*");
+			this.mappedServletPaths.add(mapping);
+		}
+		else {
+			log.warn("no resource servlet path set, bundles that are added after "
+					+ "startup cannot be served");
+			for (WebResourceBundle bundle : manifest.getBundles()) {
+				registration.addMapping(bundle.getServletPath());
+				this.mappedServletPaths.add(bundle.getServletPath());
+			}
+		}
+
+		if (background) {
+			WebResourceManifest devManifest = createDevManifest();
+			publish(devManifest);
+			// served by getJsAndCssResources() until the bundles are published
+			this.manifest = devManifest;
+			this.statistics.addPhase(ProcessingReport.PHASE_REGISTRATION,
+					registrationStart);
+			this.processingFuture = CompletableFuture.runAsync(this::processInBackground,
+					getProcessingExecutor());
+			return;
+		}
+
+		publish(manifest);
+		this.statistics.addPhase(ProcessingReport.PHASE_REGISTRATION, registrationStart);
+		completeProcessing(manifest);
+		this.processingFuture = CompletableFuture.completedFuture(null);
+
+		if (this.watch) {
+			startWatcher();
+		}
+	}
 
+	private String getDispatcherServletName() {
+		if (StringUtils.hasText(this.dispatcherServletName)) {
+			return this.dispatcherServletName;
+		}
+		return ResourceDispatcherServlet.class.getName()
+				+ ":"
+				+ (StringUtils.hasText(this.resourceServletPath) ? this.resourceServletPath
+						: this.webResourcesConfigName);
+	}
+
+	private WebResourceSources createSources() {
+		if (this.watch) {
+			this.watchSources = new WebResourceSources();
+			return this.watchSources;
+		}
+		return new WebResourceSources();
+	}
+
+	private void processInBackground() {
+		long start = System.currentTimeMillis();
+		try {
+			processAndPublish(createSources());
+			if (this.watch) {
+				startWatcher();
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			log.error("processing the web resources in the background failed, "
+					+ "serving the dev resources", e);
+			throw e instanceof IOException ? new UncheckedIOException((IOException) e)
+					: (RuntimeException) e;
+		}
+		log.info("published the web resource bundles after {} ms",
+				System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Waits until the background processing started by {@link #process()} is
+	 * finished. A failure was already logged by the background processing.
+	 */
+	private void awaitProcessing() {
+		CompletableFuture<Void> future = this.processingFuture;
+		if (!future.isDone()) {
+			try {
+				future.join();
+			}
+			catch (CompletionException | CancellationException e) {
+				// processed again by the caller
+			}
+		}
+	}
+
+	private Executor getProcessingExecutor() {
+		if (this.processingExecutor != null) {
+			return this.processingExecutor;
+		}
+		return r -> {
+			Thread thread = new Thread(r, "web-resource-processor");
+			thread.setDaemon(true);
+			thread.start();
+		};
+	}
+
+	/**
+	 * Returns the tags of the {@code dev} entries. Nothing is read or minified.
+	 */
+	private WebResourceManifest createDevManifest() throws IOException {
+		Map<String, List<WebResource>> varResources = readVariableResources(
+				new WebResourceSources(), false);
+		Map<String, List<String>> linksAndScripts = new LinkedHashMap<>();
+		for (Map.Entry<String, List<WebResource>> entry : varResources.entrySet()) {
+			List<String> resources = new ArrayList<>();
+			for (WebResource resource : entry.getValue()) {
+				resources.add(resource.getResource().getDescription());
+			}
+			linksAndScripts.put(entry.getKey(), resources);
+		}
+		return new WebResourceManifest(getContextPath(), linksAndScripts,
+				Collections.<WebResourceBundle> emptyList());
+	}
+
+	public void addProcessingListener(ProcessingListener listener) {
+		this.processingListeners.add(listener);
+	}
+
+	/**
+	 * Returns the timings and sizes of the last run or null if nothing was processed
+	 * yet.
+	 */
+	public ProcessingReport getProcessingReport() {
+		return this.processingReport;
+	}
+
+	private void completeProcessing(WebResourceManifest manifest) {
+		// the servlets hold the bundles, keeping them here would pin them on the heap
+		this.manifest = new WebResourceManifest(manifest.getContextPath(),
+				manifest.getVariables(), Collections.<WebResourceBundle> emptyList());
+		ProcessingReport report = this.statistics.createReport();
+		this.processingReport = report;
+		log.debug("{}", report);
+		for (ProcessingListener listener : this.processingListeners) {
+			listener.processingCompleted(report);
+		}
+	}
+
+	/**
+	 * Processes the web resources again and replaces the served bundles and the
+	 * variables in the servlet context. Bundles with a new name are only served when
+	 * a resource servlet path is set. Waits for a running async processing and does
+	 * not run concurrently with a rebuild of the watcher.
+	 */
+	public void refresh() throws IOException {
+		if (this.servletContext == null) {
+			throw new IllegalStateException("refresh() requires a ServletContext");
+		}
+		awaitProcessing();
+		processAndPublish(this.watchSources != null ? this.watchSources
+				: new WebResourceSources());
+	}
+
+	/**
+	 * One run of the pipeline. Runs hold the lock of {@link #publish}, so the
+	 * background processing, refresh and rebuild never overlap.
+	 */
+	private synchronized void processAndPublish(WebResourceSources sources)
+			throws IOException {
+		this.statistics = new ProcessingStatistics();
+		WebResourceManifest manifest = createManifest(sources);
+
+		long registrationStart = System.nanoTime();
+		publish(manifest);
+		this.statistics.addPhase(ProcessingReport.PHASE_REGISTRATION, registrationStart);
+		completeProcessing(manifest);
+	}
+
+	/**
+	 * Stops the watcher started by {@link #process()} in watch mode.
+	 */
+	public void stopWatching() {
+		WebResourceWatcher currentWatcher = this.watcher;
+		if (currentWatcher != null) {
+			this.watcher = null;
+			currentWatcher.close();
+		}
+	}
+
+	private void startWatcher() throws IOException {
+		WebResourceWatcher newWatcher = new WebResourceWatcher(this::rebuild);
+		newWatcher.watch(this.watchSources.getFiles());
+		try {
+			newWatcher.watch(Collections.singleton(new ClassPathResource(
+					this.webResourcesConfigName).getFile().toPath().toAbsolutePath()
+					.normalize()));
+		}
+		catch (IOException e) {
+			// configuration inside a jar, changes are not detected
+		}
+		this.watcher = newWatcher;
+		newWatcher.start();
+	}
+
+	private synchronized void rebuild(Set<Path> changed) {
+		long start = System.currentTimeMillis();
+		this.watchSources.invalidate(changed);
+
+		try {
+			processAndPublish(this.watchSources);
+		}
+		catch (IOException | RuntimeException e) {
+			log.error("rebuilding the web resources failed", e);
+			return;
+		}
+
+		// stopWatching() may have run in the meantime
+		WebResourceWatcher currentWatcher = this.watcher;
+		if (currentWatcher != null) {
+			currentWatcher.watch(this.watchSources.getFiles());
+		}
+
+		log.info("rebuilt web resources after changes of {} in {} ms", changed,
+				System.currentTimeMillis() - start);
+	}
+
+	private synchronized void publish(WebResourceManifest manifest) throws IOException {
+		int servletCacheInSeconds = this.watch ? 0 : this.cacheInSeconds;
+		Map<String, ResourceServlet> resources = new HashMap<>();
+		List<Path> storageFiles = new ArrayList<>();
+		for (WebResourceBundle bundle : manifest.getBundles()) {
+			ResourceServlet servlet = new ResourceServlet(this.storageFiles.store(
+					bundle.getFileName(), bundle.getContent(), storageFiles),
+					this.storageFiles.store(bundle.getFileName() + ".gz",
+							bundle.getGzipContent(), storageFiles),
+					this.storageFiles.store(bundle.getFileName() + ".deflate",
+							bundle.getDeflateContent(), storageFiles), bundle.getEtag(),
+					servletCacheInSeconds, bundle.getContentType());
+			servlet.setAsyncWrites(this.asyncWrites);
+			servlet.setImmutable(!this.watch);
+			if (this.resourceMetrics != null) {
+				servlet.setMetrics(this.resourceMetrics
+						.getMetrics(getMetricsName(bundle)));
+			}
+			resources.put(bundle.getServletPath(), servlet);
+
+			if (!isMapped(bundle.getServletPath())) {
+				log.warn("bundle '" + bundle.getServletPath()
+						+ "' is not mapped to the dispatcher and cannot be served");
+			}
+		}
+		this.dispatcher.publish(resources);
+
+		this.storageFiles.replace(storageFiles);
+
+		Map<String, List<String>> linksAndScripts = manifest.getVariables();
 		for (String var : linksAndScripts.keySet()) {
 			StringBuilder sb = new StringBuilder();
 			if (var.endsWith(JS_EXTENSION)) {
 				for (String res : linksAndScripts.get(var)) {
-					sb.append(String.format(JAVASCRIPT_TAG,
-							this.servletContext.getContextPath() + res));
+					sb.append(String.format(JAVASCRIPT_TAG, getContextPath() + res));
 				}
 			}
 			else {
 				for (String res : linksAndScripts.get(var)) {
-					sb.append(String.format(CSSLINK_TAG,
-							this.servletContext.getContextPath() + res));
+					sb.append(String.format(CSSLINK_TAG, getContextPath() + res));
 				}
 			}
 			this.servletContext.setAttribute(var, sb.toString());
 		}
 
+		for (String var : this.publishedVariables) {
+			if (!linksAndScripts.containsKey(var)) {
+				this.servletContext.removeAttribute(var);
+			}
+		}
+		this.publishedVariables = new HashSet<>(linksAndScripts.keySet());
+	}
+
+	/**
+	 * Returns the file name of the bundle without the content hash, the same for
+	 * every build of the bundle.
+	 */
+	private static String getMetricsName(WebResourceBundle bundle) {
+		String fileName = bundle.getFileName();
+		int hashIx = fileName.lastIndexOf(bundle.getEtag());
+		if (hashIx == -1) {
+			return fileName;
+		}
+		return fileName.substring(0, hashIx)
+				+ fileName.substring(hashIx + bundle.getEtag().length());
+	}
+
+	private boolean isMapped(String servletPath) {
+		for (String mapping : this.mappedServletPaths) {
+			if (mapping.endsWith("/") ? servletPath.startsWith(mapping) : servletPath
+					.equals(mapping)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Runs the whole pipeline and returns the links and scripts of every variable
+	 * together with the generated bundles without registering anything. Waits for a
+	 * running async processing first.
+	 */
+	public WebResourceManifest createManifest() throws IOException {
+		awaitProcessing();
+		synchronized (this) {
+			this.statistics = new ProcessingStatistics();
+			WebResourceManifest manifest = createManifest(new WebResourceSources());
+			completeProcessing(manifest);
+			return manifest;
+		}
+	}
+
+	private WebResourceManifest createManifest(WebResourceSources sources)
+			throws IOException {
+		this.removedResources.clear();
+		Map<String, List<WebResource>> varResources = readVariableResources(sources,
+				this.production);
+		if (this.bundleStore != null && !this.watch) {
+			return this.bundleStore.loadOrBuild(computeSourceSetKey(varResources, sources),
+					() -> createManifest(varResources, sources));
+		}
+		return createManifest(varResources, sources);
+	}
+
+	private WebResourceManifest createManifest(
+			Map<String, List<WebResource>> varResources, WebResourceSources sources) {
+		List<WebResourceBundle> bundles = new ArrayList<>();
+		Map<String, List<String>> linksAndScripts = minify(varResources, bundles,
+				sources);
+		bundles.addAll(sources.getAssets());
+		return new WebResourceManifest(getContextPath(), linksAndScripts, bundles);
+	}
+
+	/**
+	 * Hash of the content and the order of all files that are minified, of the images
+	 * and fonts that minified CSS files inline or fingerprint, and of every setting
+	 * that changes the bundles.
+	 */
+	private String computeSourceSetKey(Map<String, List<WebResource>> varResources,
+			WebResourceSources sources) throws IOException {
+		SourceSetKey key = new SourceSetKey();
+		// the hash of nothing tells the bundle hash functions apart
+		key.update("1", this.bundleHash.newHasher().hash(), getContextPath(),
+				String.valueOf(this.resourceServletPath),
+				String.valueOf(this.precompressBundles),
+				String.valueOf(this.inlineImageMaxSize),
+				String.valueOf(this.fingerprintCssAssets),
+				String.valueOf(this.inlineCssImports));
+
+		for (String var : new TreeSet<>(varResources.keySet())) {
+			key.update(var);
+			for (WebResource resource : varResources.get(var)) {
+				key.update(resource.getPath(), String.valueOf(resource.getChunk()));
+				if (resource.isMinify()) {
+					String text = sources.getText(resource.getResource());
+					key.update(getMinifier(resource.getMinifier()).getId(), text);
+					if (!var.endsWith(JS_EXTENSION)
+							&& (this.inlineImageMaxSize > 0 || this.fingerprintCssAssets)) {
+						key.updateAssets(resource.getResource(), text, sources);
+					}
+				}
+			}
+		}
+		return key.hash();
+	}
+
+	/**
+	 * Discards the result of the last run, the next call of
+	 * {@link #getJsAndCssResources()} processes the web resources again. Does not
+	 * change the bundles that are served, use {@link #refresh()} for that.
+	 */
+	public void invalidate() {
+		this.manifest = null;
 	}
 
+	/**
+	 * Returns the paths of the files that were left out of each variable's bundle
+	 * during the last run because no entry class reaches them.
+	 */
+	public Map<String, List<String>> getRemovedResources() {
+		return Collections.unmodifiableMap(new LinkedHashMap<>(this.removedResources));
+	}
+
+	/**
+	 * Returns the links and scripts of all variables, CSS first. The result of the
+	 * last run is reused, the web resources are only processed when nothing was
+	 * processed yet or after {@link #invalidate()}. While async processing is
+	 * running the tags of the {@code dev} entries are returned, after
+	 * {@link #invalidate()} the running processing is awaited.
+	 */
 	public List<String> getJsAndCssResources() throws IOException {
-		Map<String, List<WebResource>> varResources = readVariableResources();
-		Map<String, List<String>> linksAndScripts = minify(varResources, false);
+		WebResourceManifest currentManifest = this.manifest;
+		if (currentManifest == null) {
+			awaitProcessing();
+			currentManifest = this.manifest;
+		}
+		if (currentManifest == null) {
+			currentManifest = readManifest();
+			if (currentManifest != null) {
+				this.manifest = currentManifest;
+			}
+			else {
+				currentManifest = createManifest();
+			}
+		}
+		Map<String, List<String>> linksAndScripts = currentManifest.getVariables();
 
 		List<String> jsResources = new ArrayList<>();
 		List<String> cssResources = new ArrayList<>();
@@ -225,83 +928,151 @@ public class WebResourceProcessor {
 		return cssResources;
 	}
 
+	private WebResourceManifest readManifest() throws IOException {
+		if (this.production && StringUtils.hasText(this.manifestLocation)) {
+			Resource manifest = new ClassPathResource(this.manifestLocation);
+			if (manifest.exists()) {
+				long start = System.nanoTime();
+				WebResourceManifest webResourceManifest = WebResourceManifest
+						.read(manifest);
+				this.statistics.addPhase(ProcessingReport.PHASE_MANIFEST, start);
+				return webResourceManifest;
+			}
+			log.warn("manifest '" + this.manifestLocation
+					+ "' not found, processing web resources");
+		}
+		return null;
+	}
+
+	private String getContextPath() {
+		if (this.servletContext != null) {
+			return this.servletContext.getContextPath();
+		}
+		return this.contextPath;
+	}
+
 	private Map<String, List<String>> minify(Map<String, List<WebResource>> varResources,
-			boolean addServlet) {
+			List<WebResourceBundle> bundles, WebResourceSources sources) {
+
+		ExecutorService pool = null;
+		Executor executor = this.minifyExecutor;
+		if (executor == null) {
+			if (this.minifyThreads > 1) {
+				pool = new ForkJoinPool(this.minifyThreads);
+				executor = pool;
+			}
+			else {
+				executor = Runnable::run;
+			}
+		}
+
+		try {
+			return minify(varResources,
+					submitMinification(varResources, executor, sources), bundles, sources);
+		}
+		finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+			if (this.minificationCache != null) {
+				this.minificationCache.evict();
+			}
+		}
+	}
+
+	private Map<String, List<String>> minify(Map<String, List<WebResource>> varResources,
+			Map<WebResource, CompletableFuture<String>> minifiedResources,
+			List<WebResourceBundle> bundles, WebResourceSources sources) {
 
 		Map<String, List<String>> linksAndScripts = new LinkedHashMap<>();
 
 		for (String var : varResources.keySet()) {
 			List<String> resources = new ArrayList<>();
 
-			StringBuilder minifiedSource = new StringBuilder();
-
-			boolean jsProcessing = var.endsWith(JS_EXTENSION);
+			// chunks in the order of their first resource, the default chunk has the
+			// empty name
+			Map<String, List<WebResource>> chunks = new LinkedHashMap<>();
 			for (WebResource resource : varResources.get(var)) {
 				if (resource.isMinify()) {
-
-					try (InputStream lis = resource.getResource().getInputStream()) {
-						String sourcecode = inputStream2String(lis,
-								StandardCharsets.UTF_8);
-						if (jsProcessing) {
-							minifiedSource.append(minifyJs(cleanCode(sourcecode)))
-									.append('\n');
-						}
-						else {
-							minifiedSource.append(compressCss(changeImageUrls(
-									this.servletContext.getContextPath(), sourcecode,
-									resource.getPath())));
-						}
-					}
-					catch (IOException ioe) {
-						log.error("web resource processing: "
-								+ resource.getResource().getDescription(), ioe);
-					}
-
+					String chunk = resource.getChunk() != null ? resource.getChunk() : "";
+					chunks.computeIfAbsent(chunk, k -> new ArrayList<>()).add(resource);
 				}
 				else {
 					resources.add(resource.getResource().getDescription());
 				}
 			}
 
-			if (minifiedSource.length() > 0) {
-				byte[] content = minifiedSource.toString().getBytes(
-						StandardCharsets.UTF_8);
-
-				if (jsProcessing) {
-					String root = var.substring(0, var.length() - JS_EXTENSION.length());
+			boolean jsProcessing = var.endsWith(JS_EXTENSION);
+			if (jsProcessing && chunks.size() > 1) {
+				chunks = orderChunks(var, chunks, sources);
+			}
 
-					String crc = computeMD5andEncodeWithURLSafeBase64(content);
-					String jsFileName = root + crc + ".js";
-					String servletPath = constructServletPath(jsFileName);
+			String root;
+			String extension;
+			String contentType;
+			if (jsProcessing) {
+				root = var.substring(0, var.length() - JS_EXTENSION.length());
+				extension = ".js";
+				contentType = "application/javascript";
+			}
+			else {
+				root = var.substring(0, var.length() - CSS_EXTENSION.length());
+				extension = ".css";
+				contentType = "text/css";
+			}
 
-					if (addServlet) {
-						this.servletContext.addServlet(
-								jsFileName,
-								new ResourceServlet(content, crc, this.cacheInSeconds,
-										"application/javascript"))
-								.addMapping(servletPath);
-					}
+			int files = 0;
+			long bytesIn = 0;
+			long bytesOut = 0;
 
-					resources.add(servletPath);
+			for (Map.Entry<String, List<WebResource>> chunk : chunks.entrySet()) {
+				List<String> minifiedParts = new ArrayList<>();
+				int minifiedLength = 0;
 
+				for (WebResource resource : chunk.getValue()) {
+					String minified = getMinified(minifiedResources.get(resource));
+					if (minified != null) {
+						minifiedParts.add(minified);
+						minifiedLength += minified.length() + (jsProcessing ? 1 : 0);
+						bytesIn += getSize(resource, sources);
+					}
 				}
-				else {
-					String root = var.substring(0, var.length() - CSS_EXTENSION.length());
-					String crc = computeMD5andEncodeWithURLSafeBase64(content);
-					String cssFileName = root + crc + ".css";
-					String servletPath = constructServletPath(cssFileName);
-
-					if (addServlet) {
-						this.servletContext.addServlet(
-								cssFileName,
-								new ResourceServlet(content, crc, this.cacheInSeconds,
-										"text/css")).addMapping(servletPath);
+
+				if (minifiedLength > 0) {
+					long hashingStart = System.nanoTime();
+					// sized for ASCII output, the usual case for minified code
+					BundleBuffer buffer = new BundleBuffer(minifiedLength,
+							this.bundleHash.newHasher());
+					for (String minified : minifiedParts) {
+						buffer.append(minified);
+						if (jsProcessing) {
+							buffer.append("\n");
+						}
 					}
+					byte[] content = buffer.toByteArray();
+					String crc = buffer.hash();
+					this.statistics.addPhase(ProcessingReport.PHASE_HASHING,
+							hashingStart);
+
+					files += minifiedParts.size();
+					bytesOut += content.length;
+
+					String chunkRoot = chunk.getKey().isEmpty() ? root : root + "-"
+							+ chunk.getKey();
+					String fileName = chunkRoot + (this.watch ? "" : crc) + extension;
+					String servletPath = constructServletPath(fileName);
+
+					bundles.add(createBundle(fileName, servletPath, contentType, crc,
+							content));
 
 					resources.add(servletPath);
 				}
 			}
 
+			if (files > 0) {
+				this.statistics.addVariable(var, files, bytesIn, bytesOut);
+			}
+
 			if (!resources.isEmpty()) {
 				linksAndScripts.put(var, resources);
 			}
@@ -311,20 +1082,235 @@ public class WebResourceProcessor {
 
 	}
 
-	private Map<String, List<WebResource>> readVariableResources() throws IOException {
+	private static int getSize(WebResource resource, WebResourceSources sources) {
+		try {
+			return sources.getSize(resource.getResource());
+		}
+		catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Moves chunks behind the chunks that define the Ext classes they reference.
+	 * Otherwise the order of the configuration is kept.
+	 */
+	private Map<String, List<WebResource>> orderChunks(String var,
+			Map<String, List<WebResource>> chunks, WebResourceSources sources) {
+		Map<String, String> classToChunk = new HashMap<>();
+		Map<String, Set<String>> chunkReferences = new HashMap<>();
+		for (Map.Entry<String, List<WebResource>> chunk : chunks.entrySet()) {
+			Set<String> references = new HashSet<>();
+			for (WebResource resource : chunk.getValue()) {
+				try {
+					ExtClassScanner.ExtClass extClass = sources.getExtClass(resource
+							.getResource());
+					if (extClass.getClassName() != null) {
+						classToChunk.putIfAbsent(extClass.getClassName(), chunk.getKey());
+					}
+					references.addAll(extClass.getReferences());
+				}
+				catch (IOException e) {
+					log.warn("scan chunk resource: " + resource.getPath(), e);
+				}
+			}
+			chunkReferences.put(chunk.getKey(), references);
+		}
+
+		Map<String, Set<String>> dependencies = new HashMap<>();
+		for (Map.Entry<String, Set<String>> entry : chunkReferences.entrySet()) {
+			Set<String> chunkDependencies = new HashSet<>();
+			for (String reference : entry.getValue()) {
+				String chunk = classToChunk.get(reference);
+				if (chunk != null && !chunk.equals(entry.getKey())) {
+					chunkDependencies.add(chunk);
+				}
+			}
+			dependencies.put(entry.getKey(), chunkDependencies);
+		}
+
+		Map<String, List<WebResource>> ordered = new LinkedHashMap<>();
+		while (ordered.size() < chunks.size()) {
+			String next = null;
+			for (String chunk : chunks.keySet()) {
+				if (!ordered.containsKey(chunk)
+						&& ordered.keySet().containsAll(dependencies.get(chunk))) {
+					next = chunk;
+					break;
+				}
+			}
+
+			if (next == null) {
+				log.warn("circular references between the chunks of variable '" + var
+						+ "', keeping the configured order");
+				return chunks;
+			}
+			ordered.put(next, chunks.get(next));
+		}
+		return ordered;
+	}
+
+	private WebResourceBundle createBundle(String fileName, String servletPath,
+			String contentType, String etag, byte[] content) {
+		if (this.precompressBundles) {
+			long start = System.nanoTime();
+			WebResourceBundle bundle = new WebResourceBundle(fileName, servletPath,
+					contentType, etag, content, gzip(content), deflate(content));
+			this.statistics.addPhase(ProcessingReport.PHASE_COMPRESSION, start);
+			return bundle;
+		}
+		return new WebResourceBundle(fileName, servletPath, contentType, etag, content);
+	}
+
+	private Map<WebResource, CompletableFuture<String>> submitMinification(
+			Map<String, List<WebResource>> varResources, Executor executor,
+			WebResourceSources sources) {
+		Map<WebResource, CompletableFuture<String>> minifiedResources = new HashMap<>();
+		for (String var : varResources.keySet()) {
+			boolean jsProcessing = var.endsWith(JS_EXTENSION);
+			for (WebResource resource : varResources.get(var)) {
+				if (resource.isMinify()) {
+					String key = resource.getResource().getDescription() + "|"
+							+ resource.getPath() + "|" + resource.getMinifier();
+					minifiedResources.put(resource, sources.getMinified(key,
+							() -> minifyResource(resource, jsProcessing, sources),
+							executor));
+				}
+			}
+		}
+		return minifiedResources;
+	}
+
+	private static String getMinified(CompletableFuture<String> future) {
+		try {
+			return future.join();
+		}
+		catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private String minifyResource(WebResource resource, boolean jsProcessing,
+			WebResourceSources sources) {
+		ProcessingStatistics stats = this.statistics;
+		try {
+			long start = System.nanoTime();
+			String sourcecode = sources.getText(resource.getResource());
+			stats.addPhase(ProcessingReport.PHASE_READ, start);
+
+			if (!jsProcessing) {
+				long rewriteStart = System.nanoTime();
+				if (this.inlineCssImports) {
+					sourcecode = CssRewriter.removeImports(resource.getResource(),
+							sourcecode);
+				}
+				sourcecode = createCssRewriter().changeImageUrls(resource, sourcecode,
+						sources);
+				stats.addPhase(ProcessingReport.PHASE_CSS_URL_REWRITE, rewriteStart);
+			}
+			Minifier minifier = isMinified(resource.getPath()) ? Minifier.NONE
+					: getMinifier(resource.getMinifier());
+			if (jsProcessing && minifier != Minifier.NONE) {
+				sourcecode = cleanCode(sourcecode);
+			}
+
+			long minifyStart = System.nanoTime();
+			String minified = minifyCached(minifier, sourcecode, jsProcessing);
+			stats.addPhase(ProcessingReport.PHASE_MINIFY, minifyStart);
+
+			ProcessingReport.FileStatistics file = new ProcessingReport.FileStatistics(
+					resource.getPath(), System.nanoTime() - start,
+					sources.getSize(resource.getResource()), minified.length());
+			stats.addFile(file);
+			for (ProcessingListener listener : this.processingListeners) {
+				listener.fileProcessed(file);
+			}
+			return minified;
+		}
+		catch (IOException ioe) {
+			log.error("web resource processing: "
+					+ resource.getResource().getDescription(), ioe);
+			return null;
+		}
+	}
+
+	private String minifyCached(Minifier minifier, String source, boolean jsProcessing)
+			throws IOException {
+		if (minifier == Minifier.NONE) {
+			return source;
+		}
+
+		String key = null;
+		if (this.minificationCache != null) {
+			key = MinificationCache.computeKey(minifier.getId(), jsProcessing ? "js"
+					: "css", source);
+			String cached = this.minificationCache.get(key);
+			if (cached != null) {
+				return cached;
+			}
+		}
 
+		String minified = jsProcessing ? minifier.minifyJs(source) : minifier
+				.minifyCss(source);
+		if (key != null) {
+			this.minificationCache.put(key, minified);
+		}
+		return minified;
+	}
+
+	private Minifier getMinifier(String name) {
+		String minifierName = name != null ? name : this.defaultMinifier;
+		Minifier minifier = this.minifiers.get(minifierName);
+		if (minifier != null) {
+			return minifier;
+		}
+		switch (minifierName) {
+		case YUI_MINIFIER:
+			return new YuiMinifier(this.jsLinebreakPos, this.jsCompressorMunge,
+					this.jsCompressorVerbose, this.jsCompressorPreserveAllSemiColons,
+					this.jsCompressordisableOptimizations, this.cssLinebreakPos);
+		case "strip":
+			return Minifier.STRIP;
+		case "none":
+			return Minifier.NONE;
+		default:
+			throw new IllegalArgumentException("unknown minifier '" + minifierName
+					+ "'");
+		}
+	}
+
+	private static boolean isMinified(String path) {
+		return path.endsWith(".min.js") || path.endsWith(".min.css");
+	}
+
+	private Map<String, List<WebResource>> readVariableResources(
+			WebResourceSources sources, boolean production) throws IOException {
+		return readVariableConfigs().stream()
+				.map(c -> createWebResources(c, sources, production))
+				.flatMap(wr -> wr.stream())
+				.collect(Collectors.groupingBy(WebResource::getVarName,
+						LinkedHashMap::new, Collectors.toList()));
+	}
+
+	private List<VariableConfig> readVariableConfigs() throws IOException {
 		try (InputStream is = new ClassPathResource(this.webResourcesConfigName)
 				.getInputStream()) {
+			long start = System.nanoTime();
 			Constructor constructor = new Constructor(VariableConfig.class);
 			Yaml yaml = new Yaml(constructor);
-			return StreamSupport.stream(yaml.loadAll(is).spliterator(), false)
-					.map(e -> (VariableConfig) e).map(this::createWebResources)
-					.flatMap(wr -> wr.stream())
-					.collect(Collectors.groupingBy(WebResource::getVarName));
+			List<VariableConfig> variableConfigs = StreamSupport
+					.stream(yaml.loadAll(is).spliterator(), false)
+					.map(e -> (VariableConfig) e).collect(Collectors.toList());
+			this.statistics.addPhase(ProcessingReport.PHASE_YAML, start);
+			return variableConfigs;
 		}
 	}
 
-	private List<WebResource> createWebResources(VariableConfig variableConfig) {
+	private List<WebResource> createWebResources(VariableConfig variableConfig,
+			WebResourceSources sources, boolean production) {
 
 		List<WebResource> webResources = new ArrayList<>();
 		String varName = variableConfig.variable;
@@ -332,30 +1318,38 @@ public class WebResourceProcessor {
 		for (WebResourceConfig config : variableConfig.resources) {
 			String path = replaceVariables(config.path);
 
-			if (!this.production && config.isDevScriptOrLink()) {
+			if (!production && config.isDevScriptOrLink()) {
 				DescriptiveResource resource = new DescriptiveResource(path);
 				webResources.add(new WebResource(varName, path, resource, false));
 			}
-			else if (this.production && config.isProd()) {
+			else if (production && config.isProd()) {
 				if (config.isProdScriptOrLink()) {
 					DescriptiveResource resource = new DescriptiveResource(path);
 					webResources.add(new WebResource(varName, path, resource, false));
 				}
 				else {
+					// fail at startup and not on the first file
+					getMinifier(config.minifier);
 					try {
 						boolean jsProcessing = varName.endsWith(JS_EXTENSION);
 						List<Resource> enumeratedResources;
 						String suffix = jsProcessing ? ".js" : ".css";
+						long start = System.nanoTime();
 						if (StringUtils.hasText(config.classpath)) {
 							enumeratedResources = enumerateResourcesFromClasspath(
-									config.classpath, path, suffix);
+									config.classpath, path, suffix, sources);
 						}
 						else {
 							enumeratedResources = enumerateResourcesFromWebapp(path,
-									suffix);
+									suffix, sources);
 						}
+						this.statistics.addPhase(ProcessingReport.PHASE_ENUMERATION, start);
+
 						if (jsProcessing && enumeratedResources.size() > 1) {
-							enumeratedResources = reorder(enumeratedResources);
+							start = System.nanoTime();
+							enumeratedResources = reorder(enumeratedResources, sources);
+							this.statistics.addPhase(ProcessingReport.PHASE_REORDER,
+									start);
 						}
 
 						for (Resource resource : enumeratedResources) {
@@ -367,7 +1361,7 @@ public class WebResourceProcessor {
 							}
 
 							webResources.add(new WebResource(varName, resourcePath,
-									resource, true));
+									resource, true, config.chunk, config.minifier));
 						}
 					}
 					catch (IOException e) {
@@ -377,9 +1371,35 @@ public class WebResourceProcessor {
 			}
 		}
 
+		if (production && this.inlineCssImports && varName.endsWith(CSS_EXTENSION)) {
+			try {
+				return CssRewriter.inlineImports(webResources, sources);
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		if (production && varName.endsWith(JS_EXTENSION)
+				&& variableConfig.entries != null && !variableConfig.entries.isEmpty()) {
+			try {
+				return this.unreachableClassRemover.remove(varName, webResources,
+						variableConfig.entries, sources);
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
 		return webResources;
 	}
 
+	private CssRewriter createCssRewriter() {
+		return new CssRewriter(getContextPath(), this.servletContext,
+				this::constructServletPath, this.bundleHash, this.inlineImageMaxSize,
+				this.fingerprintCssAssets, this.watch);
+	}
+
 	private String constructServletPath(String path) {
 		if (StringUtils.hasText(this.resourceServletPath)) {
 			if (!this.resourceServletPath.endsWith("/")) {
@@ -391,14 +1411,18 @@ public class WebResourceProcessor {
 		return "/" + path;
 	}
 
-	private static List<Resource> enumerateResourcesFromClasspath(final String classpath,
-			final String path, final String suffix) throws IOException {
+	private List<Resource> enumerateResourcesFromClasspath(final String classpath,
+			final String path, final String suffix, WebResourceSources sources)
+			throws IOException {
 		if (path.endsWith("/")) {
-			PathMatchingResourcePatternResolver resourceResolver = new PathMatchingResourcePatternResolver();
 			String location = classpath + path + "**/*" + suffix;
-
-			Resource[] resources = resourceResolver.getResources(location);
-			return Arrays.asList(resources);
+			List<Resource> resources = lookupIndex(CLASSPATH_LOCATION + location,
+					ClassPathResource::new, classpath + path, suffix, sources);
+			if (resources == null) {
+				PathMatchingResourcePatternResolver resourceResolver = new PathMatchingResourcePatternResolver();
+				resources = Arrays.asList(resourceResolver.getResources(location));
+			}
+			return resources;
 		}
 
 		if (path.endsWith(suffix)) {
@@ -409,45 +1433,203 @@ public class WebResourceProcessor {
 	}
 
 	private List<Resource> enumerateResourcesFromWebapp(final String line,
-			final String suffix) throws IOException {
+			final String suffix, WebResourceSources sources) throws IOException {
 		if (line.endsWith("/")) {
-			ServletContextResourcePatternResolver resourceResolver = new ServletContextResourcePatternResolver(
-					this.servletContext);
 			String location = line + "**/*" + suffix;
-			Resource[] resources = resourceResolver.getResources(location);
-			return Arrays.asList(resources);
+			List<Resource> resources = lookupIndex(WEBAPP_LOCATION + location,
+					this.webappResourceResolver::getResource, line, suffix, sources);
+			if (resources == null) {
+				resources = Arrays.asList(this.webappResourceResolver
+						.getResources(location));
+			}
+			return resources;
 		}
 
 		if (line.endsWith(suffix)) {
-			return Collections.singletonList(new ServletContextResource(
-					this.servletContext, line));
+			return Collections.singletonList(this.webappResourceResolver
+					.getResource(line));
 		}
 
 		return Collections.emptyList();
 	}
 
-	private final static Pattern definePattern = Pattern
-			.compile("Ext\\.define\\s*?\\(\\s*?['\"](.*?)['\"]");
+	/**
+	 * Returns the files of the location listed in the resource index, or null when
+	 * the location has to be scanned.
+	 */
+	private List<Resource> lookupIndex(String location,
+			Function<String, Resource> resolver, String directory, String suffix,
+			WebResourceSources sources) {
+		WebResourceIndex index = getResourceIndex();
+		if (index == null) {
+			return null;
+		}
+
+		List<WebResourceIndex.Entry> entries = index.getEntries(location);
+		if (entries == null) {
+			log.info("resource index does not contain '" + location + "', scanning");
+			return null;
+		}
+
+		List<Resource> resources = new ArrayList<>(entries.size());
+		for (WebResourceIndex.Entry entry : entries) {
+			Resource resource = resolver.apply(entry.getPath());
+			try {
+				// the text is cached, processing does not read the file again
+				if (!resource.exists()
+						|| sources.getSize(resource) != entry.getSize()
+						|| !WebResourceIndex.hash(sources.getText(resource)).equals(
+								entry.getHash())) {
+					log.info("resource index is stale, '" + entry.getPath()
+							+ "' changed, scanning '" + location + "'");
+					return null;
+				}
+			}
+			catch (IOException e) {
+				log.info("resource index is stale, '" + entry.getPath()
+						+ "' is not readable, scanning '" + location + "'");
+				return null;
+			}
+			resources.add(resource);
+		}
+
+		if (hasUnindexedFiles(resolver.apply(directory), directory, suffix, entries)) {
+			log.info("resource index is stale, files were added, scanning '" + location
+					+ "'");
+			return null;
+		}
+		return resources;
+	}
+
+	/**
+	 * Lists the directory and returns true when it contains a file that is not in the
+	 * index. Directories that are not on the file system, e.g. in a jar, are not
+	 * listed, they change only together with the index.
+	 */
+	private static boolean hasUnindexedFiles(Resource directoryResource,
+			String directory, String suffix, List<WebResourceIndex.Entry> entries) {
+		Path directoryPath;
+		try {
+			directoryPath = directoryResource.getFile().toPath();
+		}
+		catch (IOException e) {
+			return false;
+		}
 
-	private final static Pattern extendPattern = Pattern
-			.compile("extend\\s*?:\\s*?['\"](.*?)['\"]");
+		Set<String> indexed = new HashSet<>();
+		for (WebResourceIndex.Entry entry : entries) {
+			indexed.add(entry.getPath());
+		}
 
-	private final static Pattern controllerPattern = Pattern
-			.compile("controller\\s*?:\\s*?['\"](.*?)['\"]");
+		try (Stream<Path> files = Files.walk(directoryPath)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				if (file.toString().endsWith(suffix) && Files.isRegularFile(file)) {
+					String path = directory
+							+ directoryPath.relativize(file).toString().replace('\\', '/');
+					if (!indexed.contains(path)) {
+						return true;
+					}
+				}
+			}
+		}
+		catch (IOException | UncheckedIOException e) {
+			log.info("listing '" + directory + "' failed", e);
+			return true;
+		}
+		return false;
+	}
 
-	private final static Pattern modelPattern = Pattern
-			.compile("model\\s*?:\\s*?['\"](.*?)['\"]");
+	private WebResourceIndex getResourceIndex() {
+		if (this.watch || !StringUtils.hasText(this.resourceIndexLocation)) {
+			return null;
+		}
+
+		WebResourceIndex index = this.resourceIndex;
+		if (index == null) {
+			Resource resource = new ClassPathResource(this.resourceIndexLocation);
+			if (!resource.exists()) {
+				log.warn("resource index '" + this.resourceIndexLocation
+						+ "' not found, scanning web resources");
+				return null;
+			}
+			try {
+				index = WebResourceIndex.read(resource);
+			}
+			catch (IOException e) {
+				log.warn("reading resource index '" + this.resourceIndexLocation
+						+ "' failed, scanning web resources", e);
+				return null;
+			}
+			this.resourceIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * Scans the {@code concat_minify} directories of the configuration and returns
+	 * their files with size and content hash. Does not minify anything.
+	 */
+	public WebResourceIndex createResourceIndex() throws IOException {
+		WebResourceSources sources = new WebResourceSources();
+		WebResourceIndex index = new WebResourceIndex();
+
+		for (VariableConfig variableConfig : readVariableConfigs()) {
+			String suffix = variableConfig.variable.endsWith(JS_EXTENSION) ? ".js"
+					: ".css";
+			for (WebResourceConfig config : variableConfig.resources) {
+				String path = replaceVariables(config.path);
+				if (!config.isProd() || config.isProdScriptOrLink() || !path.endsWith("/")) {
+					continue;
+				}
+
+				String location;
+				String prefix;
+				Resource[] resources;
+				if (StringUtils.hasText(config.classpath)) {
+					location = CLASSPATH_LOCATION + config.classpath + path + "**/*"
+							+ suffix;
+					prefix = config.classpath;
+					resources = new PathMatchingResourcePatternResolver()
+							.getResources(config.classpath + path + "**/*" + suffix);
+				}
+				else {
+					location = WEBAPP_LOCATION + path + "**/*" + suffix;
+					prefix = "";
+					resources = this.webappResourceResolver.getResources(path + "**/*"
+							+ suffix);
+				}
 
-	private final static Pattern requiresPattern = Pattern
-			.compile("(?s)requires\\s*?:\\s*?\\[(.*?)\\]");
+				// in path order like the recursive scan of the servlet context, the
+				// file system does not guarantee an order
+				Map<String, Resource> pathResources = new TreeMap<>();
+				for (Resource resource : resources) {
+					String url = resource.getURL().toString();
+					int pathIx = url.indexOf(path);
+					if (pathIx == -1) {
+						log.warn("cannot index '" + url + "', '" + location
+								+ "' is scanned at startup");
+						break;
+					}
+					pathResources.put(prefix + url.substring(pathIx), resource);
+				}
+				if (pathResources.size() < resources.length) {
+					continue;
+				}
 
-	private final static Pattern usesPattern = Pattern
-			.compile("(?s)uses\\s*?:\\s*?\\[(.*?)\\]");
+				index.addLocation(location);
+				for (Map.Entry<String, Resource> entry : pathResources.entrySet()) {
+					index.addEntry(location, entry.getKey(),
+							sources.getSize(entry.getValue()),
+							WebResourceIndex.hash(sources.getText(entry.getValue())));
+				}
+			}
+		}
 
-	private final static Pattern requireUsePattern = Pattern
-			.compile("(?s)['\"](.*?)['\"]");
+		return index;
+	}
 
-	private List<Resource> reorder(List<Resource> resources) throws IOException {
+	private List<Resource> reorder(List<Resource> resources, WebResourceSources sources)
+			throws IOException {
 		if (resources.isEmpty() || resources.size() == 1) {
 			return resources;
 		}
@@ -464,51 +1646,13 @@ public class WebResourceProcessor {
 
 			g.createNode(resource);
 
-			try (InputStream lis = resource.getInputStream()) {
-
-				Set<String> requires = new HashSet<>();
-
-				String sourcecode = inputStream2String(lis, StandardCharsets.UTF_8);
-
-				Matcher matcher = definePattern.matcher(sourcecode);
-				if (matcher.find()) {
-					classToFileMap.put(matcher.group(1), resource);
+			try {
+				ExtClassScanner.ExtClass extClass = sources.getExtClass(resource);
+				if (extClass.getClassName() != null) {
+					classToFileMap.put(extClass.getClassName(), resource);
 				}
 
-				matcher = extendPattern.matcher(sourcecode);
-				if (matcher.find()) {
-					requires.add(matcher.group(1));
-				}
-
-				matcher = controllerPattern.matcher(sourcecode);
-				if (matcher.find()) {
-					requires.add(matcher.group(1));
-				}
-
-				matcher = modelPattern.matcher(sourcecode);
-				if (matcher.find()) {
-					requires.add(matcher.group(1));
-				}
-
-				matcher = requiresPattern.matcher(sourcecode);
-				if (matcher.find()) {
-					String all = matcher.group(1);
-					matcher = requireUsePattern.matcher(all);
-					while (matcher.find()) {
-						requires.add(matcher.group(1));
-					}
-				}
-
-				matcher = usesPattern.matcher(sourcecode);
-				if (matcher.find()) {
-					String all = matcher.group(1);
-					matcher = requireUsePattern.matcher(all);
-					while (matcher.find()) {
-						requires.add(matcher.group(1));
-					}
-				}
-
-				resourceRequires.put(resource, requires);
+				resourceRequires.put(resource, extClass.getReferences());
 
 			}
 			catch (IOException ioe) {
@@ -520,122 +1664,31 @@ public class WebResourceProcessor {
 			Node node = g.createNode(key);
 			for (String r : resourceRequires.get(key)) {
 				Resource rr = classToFileMap.get(r);
-				if (rr != null) {
+				if (rr != null && rr != key) {
 					node.addEdge(g.createNode(rr));
 				}
 			}
 		}
 
 		try {
-			List<Node> resolved = g.resolveDependencies();
+			List<Resource> resolved = g.resolveDependencies().stream()
+					.map(Node::getResource)
+					.collect(Collectors.toCollection(ArrayList::new));
 			for (Resource ignoredRes : this.ignoreJsResourceFromReordering) {
-				resolved.add(0, new Node(ignoredRes));
+				resolved.add(0, ignoredRes);
 			}
-
-			return resolved.stream()
-					.sorted((o1, o2) -> o1.getEdges().size() == 0 ? -1 : 0)
-					.map(Node::getResource).collect(Collectors.toList());
+			return resolved;
 
 		}
 		catch (CircularReferenceException e) {
-			log.error("circular reference", e);
-			return null;
+			log.error("circular reference, keeping the original order", e);
+			return resources;
 		}
 
 	}
 
 	private static String cleanCode(String sourcecode) {
-		Matcher matcher = DEV_CODE_PATTERN.matcher(sourcecode);
-		StringBuffer cleanCode = new StringBuffer();
-		while (matcher.find()) {
-			matcher.appendReplacement(cleanCode, "");
-		}
-		matcher.appendTail(cleanCode);
-
-		return cleanCode.toString().replaceAll(REQUIRES_PATTERN, "")
-				.replaceAll(USES_PATTERN, "");
-	}
-
-	// private List<String> readAllLinesFromWebResourceConfigFile() {
-	// try (InputStream is = new ClassPathResource(webResourcesConfigName)
-	// .getInputStream()) {
-	// return readAllLines(is, StandardCharsets.UTF_8);
-	//
-	// private static List<String> readAllLines(InputStream is, Charset cs)
-	// throws IOException {
-	// try (Reader inputStreamReader = new InputStreamReader(is, cs.newDecoder());
-	// BufferedReader reader = new BufferedReader(inputStreamReader)) {
-	// List<String> result = new ArrayList<>();
-	// for (;;) {
-	// String line = reader.readLine();
-	// if (line == null) {
-	// break;
-	// }
-	// result.add(line);
-	// }
-	// return result;
-	// }
-	// }
-	// }
-	// catch (IOException ioe) {
-	// log.error("read lines from web resource config '" + webResourcesConfigName
-	// + "'", ioe);
-	// }
-	// return Collections.emptyList();
-	// }
-
-	private static String inputStream2String(InputStream is, Charset cs)
-			throws IOException {
-		StringBuilder to = new StringBuilder();
-		try (Reader from = new InputStreamReader(is, cs.newDecoder())) {
-			CharBuffer buf = CharBuffer.allocate(0x800);
-			while (from.read(buf) != -1) {
-				buf.flip();
-				to.append(buf);
-				buf.clear();
-			}
-			return to.toString();
-		}
-	}
-
-	private static String changeImageUrls(String contextPath, String cssSourceCode,
-			String cssPath) {
-		Matcher matcher = CSS_URL_PATTERN.matcher(cssSourceCode);
-		StringBuffer sb = new StringBuffer();
-
-		Path basePath = Paths.get(contextPath + cssPath);
-
-		while (matcher.find()) {
-			String url = matcher.group(2);
-			url = url.trim();
-			if (url.equals("#default#VML") || url.startsWith("data:")) {
-				continue;
-			}
-			Path pa = basePath.resolveSibling(url).normalize();
-			matcher.appendReplacement(sb, "$1" + pa.toString().replace("\\", "/")
-					+ "$3$4");
-		}
-		matcher.appendTail(sb);
-		return sb.toString();
-	}
-
-	private String minifyJs(final String jsSourceCode) throws EvaluatorException,
-			IOException {
-		JavaScriptCompressor jsc = new JavaScriptCompressor(
-				new StringReader(jsSourceCode), this.errorReporter);
-		StringWriter sw = new StringWriter();
-		jsc.compress(sw, this.jsLinebreakPos, this.jsCompressorMunge,
-				this.jsCompressorVerbose, this.jsCompressorPreserveAllSemiColons,
-				this.jsCompressordisableOptimizations);
-		return sw.toString();
-
-	}
-
-	private String compressCss(final String css) throws EvaluatorException, IOException {
-		CssCompressor cc = new CssCompressor(new StringReader(css));
-		StringWriter sw = new StringWriter();
-		cc.compress(sw, this.cssLinebreakPos);
-		return sw.toString();
+		return DevCodeRemover.remove(sourcecode);
 	}
 
 	private String replaceVariables(String inputLine) {
@@ -664,51 +1717,34 @@ public class WebResourceProcessor {
 		return Collections.emptyMap();
 	}
 
-	private static String computeMD5andEncodeWithURLSafeBase64(final byte[] content) {
-		try {
-			MessageDigest md5Digest = MessageDigest.getInstance("MD5");
-			md5Digest.update(content);
-			byte[] md5 = md5Digest.digest();
-
-			return Base64.getUrlEncoder().encodeToString(md5);
-
+	private static byte[] gzip(byte[] content) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(content.length / 3);
+		try (GZIPOutputStream gos = new GZIPOutputStream(bos) {
+			{
+				this.def.setLevel(Deflater.BEST_COMPRESSION);
+			}
+		}) {
+			gos.write(content);
 		}
-		catch (NoSuchAlgorithmException e) {
+		catch (IOException e) {
 			throw new RuntimeException(e);
 		}
+		return bos.toByteArray();
 	}
 
-	private final static class JavaScriptCompressorErrorReporter implements ErrorReporter {
-		@Override
-		public void warning(String message, String sourceName, int line,
-				String lineSource, int lineOffset) {
-			if (line < 0) {
-				log.warn("JavaScriptCompressor warning: {}", message);
-			}
-			else {
-				log.warn("JavaScriptCompressor warning: {}:{}:{}", line, lineOffset,
-						message);
-			}
+	private static byte[] deflate(byte[] content) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(content.length / 3);
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try (DeflaterOutputStream dos = new DeflaterOutputStream(bos, deflater)) {
+			dos.write(content);
 		}
-
-		@Override
-		public void error(String message, String sourceName, int line, String lineSource,
-				int lineOffset) {
-			if (line < 0) {
-				log.error("JavaScriptCompressor error: {}", message);
-			}
-			else {
-				log.error("JavaScriptCompressor error: {}:{}:{}", line, lineOffset,
-						message);
-			}
+		catch (IOException e) {
+			throw new RuntimeException(e);
 		}
-
-		@Override
-		public EvaluatorException runtimeError(String message, String sourceName,
-				int line, String lineSource, int lineOffset) {
-			error(message, sourceName, line, lineSource, lineOffset);
-			return new EvaluatorException(message);
+		finally {
+			deflater.end();
 		}
+		return bos.toByteArray();
 	}
 
 }
@@ -0,0 +1,285 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import org.springframework.core.io.Resource;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * Reads every resource of a processing run only once. In watch mode the registry
+ * is kept across runs and only the entries of changed files are invalidated.
+ */
+final class WebResourceSources {
+
+	private final ConcurrentMap<String, Source> sources = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, CompletableFuture<String>> minified = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, WebResourceBundle> assets = new ConcurrentHashMap<>();
+
+	String getText(Resource resource) throws IOException {
+		return source(resource).getText();
+	}
+
+	int getSize(Resource resource) throws IOException {
+		return source(resource).getSize();
+	}
+
+	ExtClassScanner.ExtClass getExtClass(Resource resource) throws IOException {
+		return source(resource).getExtClass();
+	}
+
+	/**
+	 * Returns the SHA-256 hash of the content.
+	 */
+	String getContentHash(Resource resource) throws IOException {
+		return source(resource).getContentHash();
+	}
+
+	/**
+	 * Returns the image as a data URI, null when it is larger than maxSize bytes.
+	 */
+	String getDataUri(Resource image, String mimeType, int maxSize) throws IOException {
+		return source(image).getDataUri(mimeType, maxSize);
+	}
+
+	CompletableFuture<String> getMinified(String key, Supplier<String> minifier,
+			Executor executor) {
+		return this.minified.computeIfAbsent(key,
+				k -> CompletableFuture.supplyAsync(minifier, executor));
+	}
+
+	WebResourceBundle getAsset(Resource resource, Supplier<WebResourceBundle> creator) {
+		return this.assets.computeIfAbsent(getKey(resource), k -> creator.get());
+	}
+
+	Collection<WebResourceBundle> getAssets() {
+		Map<String, WebResourceBundle> assetsByName = new TreeMap<>();
+		for (WebResourceBundle asset : this.assets.values()) {
+			assetsByName.putIfAbsent(asset.getFileName(), asset);
+		}
+		return new ArrayList<>(assetsByName.values());
+	}
+
+	/**
+	 * Records that the output of the resource depends on the asset, e.g. an image
+	 * that a CSS file inlines.
+	 */
+	void addDependency(Resource resource, Resource asset) {
+		Path file = getFile(asset);
+		if (file != null && Files.isDirectory(file.getParent())) {
+			source(resource).addDependency(file);
+		}
+	}
+
+	/**
+	 * Removes the entries of the resources that are or depend on the changed files
+	 * and directories.
+	 */
+	void invalidate(Set<Path> changed) {
+		for (Iterator<Map.Entry<String, Source>> it = this.sources.entrySet().iterator(); it
+				.hasNext();) {
+			Map.Entry<String, Source> entry = it.next();
+			if (entry.getValue().isAffected(changed)) {
+				it.remove();
+				String prefix = entry.getKey() + "|";
+				this.minified.keySet().removeIf(key -> key.startsWith(prefix));
+			}
+		}
+	}
+
+	Set<Path> getFiles() {
+		Set<Path> files = new HashSet<>();
+		for (Source source : this.sources.values()) {
+			Path file = source.getFile();
+			if (file != null) {
+				files.add(file);
+			}
+			files.addAll(source.getDependencies());
+		}
+		return files;
+	}
+
+	/**
+	 * Returns the normalized url, the same for every relative path to the file.
+	 */
+	static String getKey(Resource resource) {
+		try {
+			return StringUtils.cleanPath(resource.getURL().toString());
+		}
+		catch (IOException e) {
+			return resource.getDescription();
+		}
+	}
+
+	private static Path getFile(Resource resource) {
+		try {
+			return resource.getFile().toPath().toAbsolutePath().normalize();
+		}
+		catch (IOException e) {
+			// not backed by a file (e.g. inside a jar)
+			return null;
+		}
+	}
+
+	private Source source(Resource resource) {
+		return this.sources.computeIfAbsent(resource.getDescription(),
+				k -> new Source(resource));
+	}
+
+	private final static class Source {
+
+		private final Resource resource;
+
+		private String text;
+
+		private ExtClassScanner.ExtClass extClass;
+
+		private String dataUri;
+
+		private String contentHash;
+
+		private Path file;
+
+		private int size;
+
+		private final Set<Path> dependencies = new HashSet<>();
+
+		Source(Resource resource) {
+			this.resource = resource;
+		}
+
+		synchronized String getText() throws IOException {
+			if (this.text == null) {
+				byte[] bytes = readBytes();
+				this.size = bytes.length;
+				this.text = StandardCharsets.UTF_8.newDecoder()
+						.decode(ByteBuffer.wrap(bytes)).toString();
+			}
+			return this.text;
+		}
+
+		synchronized int getSize() throws IOException {
+			getText();
+			return this.size;
+		}
+
+		synchronized ExtClassScanner.ExtClass getExtClass() throws IOException {
+			if (this.extClass == null) {
+				this.extClass = ExtClassScanner.scan(getText());
+			}
+			return this.extClass;
+		}
+
+		synchronized String getDataUri(String mimeType, int maxSize) throws IOException {
+			if (this.dataUri == null) {
+				if (this.resource.contentLength() > maxSize) {
+					return null;
+				}
+				byte[] bytes = readBytes();
+				this.size = bytes.length;
+				if (bytes.length > maxSize) {
+					return null;
+				}
+				this.dataUri = "data:" + mimeType + ";base64,"
+						+ Base64.getEncoder().encodeToString(bytes);
+			}
+			return this.dataUri;
+		}
+
+		synchronized String getContentHash() throws IOException {
+			if (this.contentHash == null) {
+				byte[] bytes = readBytes();
+				this.size = bytes.length;
+				BundleHash.Hasher hasher = BundleHash.SHA_256.newHasher();
+				hasher.update(bytes, 0, bytes.length);
+				this.contentHash = hasher.hash();
+			}
+			return this.contentHash;
+		}
+
+		synchronized Path getFile() {
+			return this.file;
+		}
+
+		synchronized void addDependency(Path dependency) {
+			this.dependencies.add(dependency);
+		}
+
+		synchronized Set<Path> getDependencies() {
+			return new HashSet<>(this.dependencies);
+		}
+
+		synchronized boolean isAffected(Set<Path> changed) {
+			if (isAffected(this.file, changed)) {
+				return true;
+			}
+			for (Path dependency : this.dependencies) {
+				if (isAffected(dependency, changed)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static boolean isAffected(Path file, Set<Path> changed) {
+			return file != null
+					&& (changed.contains(file) || changed.contains(file.getParent()));
+		}
+
+		private byte[] readBytes() throws IOException {
+			File resourceFile = null;
+			try {
+				resourceFile = this.resource.getFile();
+			}
+			catch (IOException e) {
+				// not backed by a file (e.g. inside a jar), read the stream
+			}
+
+			if (resourceFile != null && resourceFile.isFile()) {
+				this.file = resourceFile.toPath().toAbsolutePath().normalize();
+				return Files.readAllBytes(this.file);
+			}
+
+			try (InputStream is = this.resource.getInputStream()) {
+				return FileCopyUtils.copyToByteArray(is);
+			}
+		}
+	}
+
+}
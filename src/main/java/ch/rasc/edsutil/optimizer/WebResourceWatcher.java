@@ -0,0 +1,155 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the directories of the processed files with a {@link WatchService} and
+ * reports the changed files to a listener. Events that arrive in quick succession
+ * (e.g. an editor that saves several files) are collected into one notification.
+ */
+final class WebResourceWatcher implements Runnable {
+
+	private final static Logger log = LoggerFactory.getLogger("ch.rasc.edsutil");
+
+	private static final long QUIET_PERIOD_MILLIS = 200;
+
+	private final WatchService watchService;
+
+	private final Consumer<Set<Path>> listener;
+
+	private final Set<Path> directories = ConcurrentHashMap.newKeySet();
+
+	private final Thread thread;
+
+	WebResourceWatcher(Consumer<Set<Path>> listener) throws IOException {
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.listener = listener;
+		this.thread = new Thread(this, "web-resource-watcher");
+		this.thread.setDaemon(true);
+	}
+
+	void start() {
+		this.thread.start();
+	}
+
+	void close() {
+		try {
+			this.watchService.close();
+		}
+		catch (IOException e) {
+			log.warn("closing the web resource watcher failed", e);
+		}
+		this.thread.interrupt();
+	}
+
+	/**
+	 * Registers the directories of the given files. Directories that are already
+	 * watched are skipped.
+	 */
+	void watch(Collection<Path> files) {
+		for (Path file : files) {
+			Path directory = file.getParent();
+			if (directory != null) {
+				register(directory);
+			}
+		}
+	}
+
+	private void register(Path directory) {
+		if (this.directories.add(directory)) {
+			try {
+				directory.register(this.watchService,
+						StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+			}
+			catch (IOException | ClosedWatchServiceException e) {
+				this.directories.remove(directory);
+				log.warn("watching directory '" + directory + "' failed", e);
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Set<Path> changed = new HashSet<>();
+				collect(this.watchService.take(), changed);
+
+				WatchKey key;
+				while ((key = this.watchService.poll(QUIET_PERIOD_MILLIS,
+						TimeUnit.MILLISECONDS)) != null) {
+					collect(key, changed);
+				}
+
+				if (!changed.isEmpty()) {
+					try {
+						this.listener.accept(changed);
+					}
+					catch (RuntimeException e) {
+						log.error("web resource watcher listener failed", e);
+					}
+				}
+			}
+		}
+		catch (InterruptedException | ClosedWatchServiceException e) {
+			// watcher closed
+		}
+	}
+
+	private void collect(WatchKey key, Set<Path> changed) {
+		Path directory = (Path) key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// events were lost, treat every file in the directory as changed
+				changed.add(directory);
+				continue;
+			}
+
+			Path file = directory.resolve((Path) event.context());
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+					&& Files.isDirectory(file)) {
+				register(file);
+			}
+			changed.add(file);
+		}
+
+		if (!key.reset()) {
+			this.directories.remove(directory);
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.mozilla.javascript.ErrorReporter;
+import org.mozilla.javascript.EvaluatorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.yahoo.platform.yui.compressor.CssCompressor;
+import com.yahoo.platform.yui.compressor.JavaScriptCompressor;
+
+/**
+ * {@link Minifier} that runs the YUI compressor, the default engine.
+ */
+public class YuiMinifier implements Minifier {
+
+	private final static Logger log = LoggerFactory.getLogger("ch.rasc.edsutil");
+
+	private final ErrorReporter errorReporter = new JavaScriptCompressorErrorReporter();
+
+	private final int jsLinebreakPos;
+
+	private final boolean jsCompressorMunge;
+
+	private final boolean jsCompressorVerbose;
+
+	private final boolean jsCompressorPreserveAllSemiColons;
+
+	private final boolean jsCompressordisableOptimizations;
+
+	private final int cssLinebreakPos;
+
+	public YuiMinifier(int jsLinebreakPos, boolean jsCompressorMunge,
+			boolean jsCompressorVerbose, boolean jsCompressorPreserveAllSemiColons,
+			boolean jsCompressordisableOptimizations, int cssLinebreakPos) {
+		this.jsLinebreakPos = jsLinebreakPos;
+		this.jsCompressorMunge = jsCompressorMunge;
+		this.jsCompressorVerbose = jsCompressorVerbose;
+		this.jsCompressorPreserveAllSemiColons = jsCompressorPreserveAllSemiColons;
+		this.jsCompressordisableOptimizations = jsCompressordisableOptimizations;
+		this.cssLinebreakPos = cssLinebreakPos;
+	}
+
+	@Override
+	public String getId() {
+		return "yui:" + this.jsLinebreakPos + ":" + this.jsCompressorMunge + ":"
+				+ this.jsCompressorPreserveAllSemiColons + ":"
+				+ this.jsCompressordisableOptimizations + ":" + this.cssLinebreakPos;
+	}
+
+	@Override
+	public String minifyJs(final String jsSourceCode) throws EvaluatorException,
+			IOException {
+		JavaScriptCompressor jsc = new JavaScriptCompressor(
+				new StringReader(jsSourceCode), this.errorReporter);
+		StringWriter sw = new StringWriter();
+		jsc.compress(sw, this.jsLinebreakPos, this.jsCompressorMunge,
+				this.jsCompressorVerbose, this.jsCompressorPreserveAllSemiColons,
+				this.jsCompressordisableOptimizations);
+		return sw.toString();
+	}
+
+	@Override
+	public String minifyCss(final String css) throws EvaluatorException, IOException {
+		CssCompressor cc = new CssCompressor(new StringReader(css));
+		StringWriter sw = new StringWriter();
+		cc.compress(sw, this.cssLinebreakPos);
+		return sw.toString();
+	}
+
+	private final static class JavaScriptCompressorErrorReporter implements ErrorReporter {
+		@Override
+		public void warning(String message, String sourceName, int line,
+				String lineSource, int lineOffset) {
+			if (line < 0) {
+				log.warn("JavaScriptCompressor warning: {}", message);
+			}
+			else {
+				log.warn("JavaScriptCompressor warning: {}:{}:{}", line, lineOffset,
+						message);
+			}
+		}
+
+		@Override
+		public void error(String message, String sourceName, int line, String lineSource,
+				int lineOffset) {
+			if (line < 0) {
+				log.error("JavaScriptCompressor error: {}", message);
+			}
+			else {
+				log.error("JavaScriptCompressor error: {}:{}:{}", line, lineOffset,
+						message);
+			}
+		}
+
+		@Override
+		public EvaluatorException runtimeError(String message, String sourceName,
+				int line, String lineSource, int lineOffset) {
+			error(message, sourceName, line, lineSource, lineOffset);
+			return new EvaluatorException(message);
+		}
+	}
+
+}
@@ -20,4 +20,5 @@ import java.util.List;
 public class VariableConfig {
 	public String variable;
 	public List<WebResourceConfig> resources;
+	public List<String> entries;
 }
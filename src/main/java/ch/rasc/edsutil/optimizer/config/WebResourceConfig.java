@@ -25,6 +25,8 @@ public class WebResourceConfig {
 	public WebResourceType dev;
 	public WebResourceType prod;
 	public String classpath;
+	public String chunk;
+	public String minifier;
 
 	public boolean isDevScriptOrLink() {
 		return this.dev != null
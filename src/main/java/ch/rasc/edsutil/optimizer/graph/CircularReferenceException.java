@@ -15,13 +15,30 @@
  */
 package ch.rasc.edsutil.optimizer.graph;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
 public class CircularReferenceException extends Exception {
 
 	private static final long serialVersionUID = 1L;
 
+	private final List<Node> cycle;
+
 	public CircularReferenceException(Node node, Node edge) {
-		super(String.format("Circular reference detected: %s -> %s", node.getResource()
-				.getDescription(), edge.getResource().getDescription()));
+		this(Arrays.asList(node, edge));
+	}
+
+	public CircularReferenceException(List<Node> cycle) {
+		super("Circular reference detected: "
+				+ cycle.stream().map(n -> n.getResource().getDescription())
+						.collect(Collectors.joining(" -> ")));
+		this.cycle = Collections.unmodifiableList(cycle);
+	}
+
+	public List<Node> getCycle() {
+		return this.cycle;
 	}
 
 }
@@ -18,10 +18,8 @@ package ch.rasc.edsutil.optimizer.graph;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.springframework.core.io.Resource;
 
@@ -29,39 +27,104 @@ public class Graph {
 
 	private final Map<String, Node> nodesDb = new HashMap<>();
 
+	private final List<Node> nodes = new ArrayList<>();
+
 	public Node createNode(Resource resource) {
 		Node newNode = this.nodesDb.get(resource.getDescription());
 		if (newNode == null) {
-			newNode = new Node(resource);
+			newNode = new Node(resource, this.nodes.size());
 			this.nodesDb.put(resource.getDescription(), newNode);
+			this.nodes.add(newNode);
 		}
 		return newNode;
 	}
 
+	/**
+	 * Returns all nodes so that every node comes after the nodes it has an edge to.
+	 * Runs in O(V+E) (Kahn's algorithm). Nodes that are ready at the same time are
+	 * returned in creation order.
+	 */
 	public List<Node> resolveDependencies() throws CircularReferenceException,
 			IOException {
-		List<Node> resolved = new ArrayList<>();
-		Set<Node> unresolved = new HashSet<>();
-		for (Node node : this.nodesDb.values()) {
-			if (!resolved.contains(node)) {
-				depResolve(node, resolved, unresolved);
+		int size = this.nodes.size();
+		int[] pendingEdges = new int[size];
+		List<List<Node>> dependents = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			dependents.add(new ArrayList<>());
+		}
+
+		for (Node node : this.nodes) {
+			for (Node edge : node.getEdges()) {
+				if (edge.getId() != node.getId()) {
+					pendingEdges[node.getId()]++;
+					dependents.get(edge.getId()).add(node);
+				}
+				else {
+					throw new CircularReferenceException(node, edge);
+				}
+			}
+		}
+
+		Node[] queue = new Node[size];
+		int head = 0;
+		int tail = 0;
+		for (Node node : this.nodes) {
+			if (pendingEdges[node.getId()] == 0) {
+				queue[tail++] = node;
+			}
+		}
+
+		while (head < tail) {
+			Node node = queue[head++];
+			for (Node dependent : dependents.get(node.getId())) {
+				if (--pendingEdges[dependent.getId()] == 0) {
+					queue[tail++] = dependent;
+				}
 			}
 		}
+
+		if (tail < size) {
+			throw new CircularReferenceException(findCycle(pendingEdges));
+		}
+
+		List<Node> resolved = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			resolved.add(queue[i]);
+		}
 		return resolved;
 	}
 
-	private void depResolve(Node node, List<Node> resolved, Set<Node> unresolved)
-			throws CircularReferenceException, IOException {
-		unresolved.add(node);
-		for (Node edge : node.getEdges()) {
-			if (!resolved.contains(edge)) {
-				if (unresolved.contains(edge)) {
-					throw new CircularReferenceException(node, edge);
+	private List<Node> findCycle(int[] pendingEdges) {
+		// every node that is still pending has at least one edge to another pending
+		// node, so following those edges eventually visits a node twice
+		int[] visitedAt = new int[this.nodes.size()];
+		List<Node> path = new ArrayList<>();
+
+		Node current = null;
+		for (Node node : this.nodes) {
+			if (pendingEdges[node.getId()] > 0) {
+				current = node;
+				break;
+			}
+		}
+
+		while (visitedAt[current.getId()] == 0) {
+			path.add(current);
+			visitedAt[current.getId()] = path.size();
+
+			Node next = null;
+			for (Node edge : current.getEdges()) {
+				if (pendingEdges[edge.getId()] > 0
+						&& (next == null || edge.getId() < next.getId())) {
+					next = edge;
 				}
-				depResolve(edge, resolved, unresolved);
 			}
+			current = next;
 		}
-		resolved.add(node);
-		unresolved.remove(node);
+
+		List<Node> cycle = new ArrayList<>(path.subList(visitedAt[current.getId()] - 1,
+				path.size()));
+		cycle.add(current);
+		return cycle;
 	}
 }
@@ -25,10 +25,17 @@ public class Node {
 
 	private final Resource resource;
 
+	private final int id;
+
 	private final Set<Node> edges = new HashSet<>();
 
-	public Node(Resource resource) {
+	Node(Resource resource, int id) {
 		this.resource = resource;
+		this.id = id;
+	}
+
+	public int getId() {
+		return this.id;
 	}
 
 	public void addEdge(Node edge) {
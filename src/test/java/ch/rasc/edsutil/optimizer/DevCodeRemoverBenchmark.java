@@ -0,0 +1,140 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares {@link DevCodeRemover} with the regular expressions that
+ * {@code WebResourceProcessor.cleanCode} used before. Not a test, run it with the test
+ * classpath:
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/classes:target/test-classes:$(cat target/cp.txt) \
+ *     ch.rasc.edsutil.optimizer.DevCodeRemoverBenchmark [file.js ...]
+ * </pre>
+ *
+ * Every corpus is processed 20 times per round, the average of the fastest of 5 rounds
+ * is printed. Without arguments generated Ext JS classes and requires arrays without a
+ * trailing comma are used.
+ */
+public class DevCodeRemoverBenchmark {
+
+	private static final int RUNS = 20;
+
+	private static final int ROUNDS = 5;
+
+	private final static Pattern DEV_CODE_PATTERN = Pattern.compile(
+			"/\\* <debug> \\*/.*?/\\* </debug> \\*/", Pattern.DOTALL);
+
+	public static void main(String[] args) throws IOException {
+		List<String[]> corpora = new ArrayList<>();
+		if (args.length == 0) {
+			corpora.add(new String[] { "generated Ext classes", generateExtClasses() });
+			corpora.add(new String[] { "requires without comma",
+					generateRequiresWithoutComma() });
+		}
+		for (String arg : args) {
+			corpora.add(new String[] { arg,
+					new String(Files.readAllBytes(Paths.get(arg)), StandardCharsets.UTF_8) });
+		}
+
+		for (String[] corpus : corpora) {
+			String source = corpus[1];
+			long bestRegex = Long.MAX_VALUE;
+			long bestRemover = Long.MAX_VALUE;
+			int checksum = 0;
+			for (int round = 0; round < ROUNDS; round++) {
+				long start = System.nanoTime();
+				for (int i = 0; i < RUNS; i++) {
+					checksum += removeWithRegex(source).length();
+				}
+				bestRegex = Math.min(bestRegex, System.nanoTime() - start);
+
+				start = System.nanoTime();
+				for (int i = 0; i < RUNS; i++) {
+					checksum += DevCodeRemover.remove(source).length();
+				}
+				bestRemover = Math.min(bestRemover, System.nanoTime() - start);
+			}
+
+			System.out.printf(
+					"%s: %d KB, regex %.2f ms, remover %.2f ms, same output %b (%d)%n",
+					corpus[0], source.length() / 1024, bestRegex / 1e6 / RUNS,
+					bestRemover / 1e6 / RUNS,
+					removeWithRegex(source).equals(DevCodeRemover.remove(source)),
+					checksum);
+		}
+	}
+
+	/**
+	 * The former implementation of cleanCode.
+	 */
+	private static String removeWithRegex(String source) {
+		Matcher matcher = DEV_CODE_PATTERN.matcher(source);
+		StringBuffer cleanCode = new StringBuffer();
+		while (matcher.find()) {
+			matcher.appendReplacement(cleanCode, "");
+		}
+		matcher.appendTail(cleanCode);
+
+		return cleanCode.toString()
+				.replaceAll("(?s)\\brequires\\s*?:\\s*?\\[.*?\\]\\s*?,", "")
+				.replaceAll("(?s)\\buses\\s*?:\\s*?\\[.*?\\]\\s*?,", "");
+	}
+
+	/**
+	 * 2000 small classes with requires and uses arrays and a debug block.
+	 */
+	private static String generateExtClasses() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			sb.append("Ext.define('App.view.V").append(i).append("', {\n");
+			sb.append("  extend: 'Ext.panel.Panel',\n");
+			sb.append("  requires: ['App.model.User', 'App.store.Users'],\n");
+			sb.append("  uses : [ 'App.view.Other' ],\n");
+			sb.append("  /* <debug> */\n");
+			sb.append("  check: function() { console.log('debug'); },\n");
+			sb.append("  /* </debug> */\n");
+			sb.append("  initComponent: function() {\n");
+			sb.append("    this.callParent(arguments);\n");
+			sb.append("  }\n");
+			sb.append("});\n");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Requires arrays that are never followed by a comma, the worst case for the
+	 * lazy regular expression.
+	 */
+	private static String generateRequiresWithoutComma() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 3000; i++) {
+			sb.append("Ext.define('X', { requires: ['A'] });\n");
+		}
+		return sb.toString();
+	}
+
+}
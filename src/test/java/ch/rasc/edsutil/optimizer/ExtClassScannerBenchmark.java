@@ -0,0 +1,159 @@
+/**
+ * Copyright 2013-2015 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.edsutil.optimizer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares {@link ExtClassScanner} with the regular expressions that
+ * {@link WebResourceProcessor} used before to find the Ext JS dependencies. Not a
+ * test, run it with the test classpath:
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/classes:target/test-classes:$(cat target/cp.txt) \
+ *     ch.rasc.edsutil.optimizer.ExtClassScannerBenchmark [file.js ...]
+ * </pre>
+ *
+ * Every corpus is repeated to about 8 MB and scanned in 15 rounds, the fastest round
+ * is printed. Without arguments a generated Ext JS class is scanned.
+ */
+public class ExtClassScannerBenchmark {
+
+	private static final int CORPUS_SIZE = 8 << 20;
+
+	private static final int ROUNDS = 15;
+
+	private final static Pattern definePattern = Pattern
+			.compile("Ext\\.define\\s*?\\(\\s*?['\"](.*?)['\"]");
+
+	private final static Pattern extendPattern = Pattern
+			.compile("extend\\s*?:\\s*?['\"](.*?)['\"]");
+
+	private final static Pattern controllerPattern = Pattern
+			.compile("controller\\s*?:\\s*?['\"](.*?)['\"]");
+
+	private final static Pattern modelPattern = Pattern
+			.compile("model\\s*?:\\s*?['\"](.*?)['\"]");
+
+	private final static Pattern requiresPattern = Pattern
+			.compile("(?s)requires\\s*?:\\s*?\\[(.*?)\\]");
+
+	private final static Pattern usesPattern = Pattern
+			.compile("(?s)uses\\s*?:\\s*?\\[(.*?)\\]");
+
+	private final static Pattern requireUsePattern = Pattern
+			.compile("(?s)['\"](.*?)['\"]");
+
+	public static void main(String[] args) throws IOException {
+		List<String[]> corpora = new ArrayList<>();
+		if (args.length == 0) {
+			corpora.add(new String[] { "generated Ext class", generateExtClass() });
+		}
+		for (String arg : args) {
+			corpora.add(new String[] { arg,
+					new String(Files.readAllBytes(Paths.get(arg)), StandardCharsets.UTF_8) });
+		}
+
+		for (String[] corpus : corpora) {
+			String source = corpus[1];
+			int repetitions = Math.max(1, CORPUS_SIZE / source.length());
+			double megabytes = (double) source.length() * repetitions / (1 << 20);
+
+			long bestRegex = Long.MAX_VALUE;
+			long bestScanner = Long.MAX_VALUE;
+			int checksum = 0;
+			for (int round = 0; round < ROUNDS; round++) {
+				long start = System.nanoTime();
+				for (int i = 0; i < repetitions; i++) {
+					checksum += scanWithRegex(source).size();
+				}
+				bestRegex = Math.min(bestRegex, System.nanoTime() - start);
+
+				start = System.nanoTime();
+				for (int i = 0; i < repetitions; i++) {
+					checksum += ExtClassScanner.scan(source).getReferences().size();
+				}
+				bestScanner = Math.min(bestScanner, System.nanoTime() - start);
+			}
+
+			System.out.printf("%s: %.1f MB, regex %.1f ms/MB, scanner %.1f ms/MB (%d)%n",
+					corpus[0], megabytes, bestRegex / 1e6 / megabytes, bestScanner / 1e6
+							/ megabytes, checksum);
+		}
+	}
+
+	/**
+	 * The former implementation: the first match of every pattern.
+	 */
+	private static Set<String> scanWithRegex(String source) {
+		Set<String> requires = new HashSet<>();
+		Matcher matcher = definePattern.matcher(source);
+		if (matcher.find()) {
+			requires.add(matcher.group(1));
+		}
+		for (Pattern pattern : new Pattern[] { extendPattern, controllerPattern,
+				modelPattern }) {
+			matcher = pattern.matcher(source);
+			if (matcher.find()) {
+				requires.add(matcher.group(1));
+			}
+		}
+		for (Pattern pattern : new Pattern[] { requiresPattern, usesPattern }) {
+			matcher = pattern.matcher(source);
+			if (matcher.find()) {
+				matcher = requireUsePattern.matcher(matcher.group(1));
+				while (matcher.find()) {
+					requires.add(matcher.group(1));
+				}
+			}
+		}
+		return requires;
+	}
+
+	/**
+	 * A class of about 8 KB with a documentation comment, the usual configuration
+	 * keys and methods with comments, strings and regular expressions.
+	 */
+	private static String generateExtClass() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("/**\n * Sample class, mentions requires: ['Doc.Only'] in the doc\n */\n");
+		sb.append("Ext.define('App.view.Sample', {\n");
+		sb.append("  extend: 'Ext.panel.Panel',\n");
+		sb.append("  requires: ['App.store.A', 'App.store.B', 'Ext.grid.Panel'],\n");
+		sb.append("  mixins: { observable: 'Ext.util.Observable' },\n");
+		for (int i = 0; i < 60; i++) {
+			sb.append("  method").append(i).append(": function(a, b) {\n");
+			sb.append("    // compute something\n");
+			sb.append("    var re = /[a-z]+\\/x/g, s = 'str\\'ing ").append(i)
+					.append("';\n");
+			sb.append("    return a / b + s.replace(re, \"x\");\n");
+			sb.append("  },\n");
+		}
+		sb.append("  last: true\n});\n");
+		return sb.toString();
+	}
+
+}